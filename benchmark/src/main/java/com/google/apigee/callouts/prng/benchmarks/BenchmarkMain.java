@@ -0,0 +1,59 @@
+// BenchmarkMain.java
+// ------------------------------------------------------------------
+//
+// Runs the callout benchmarks at 1, 2, 4 ... N threads, with the GC
+// profiler attached so that allocation per op is reported alongside
+// throughput and latency percentiles.
+//
+// Usage:
+//   java -jar target/benchmarks.jar [maxThreads] [benchmark-regex] [resultfile]
+//
+// maxThreads defaults to the number of available processors.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.prng.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads =
+        (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    String include =
+        (args.length > 1) ? args[1] : SecureRandomCalloutBenchmark.class.getSimpleName();
+    String resultFile = (args.length > 2) ? args[2] : "jmh-result";
+
+    for (int threads = 1; ; threads *= 2) {
+      if (threads > maxThreads) threads = maxThreads;
+      Options opt =
+          new OptionsBuilder()
+              .include(include)
+              .threads(threads)
+              .addProfiler(GCProfiler.class)
+              .resultFormat(ResultFormatType.JSON)
+              .result(String.format("%s-t%d.json", resultFile, threads))
+              .build();
+      new Runner(opt).run();
+      if (threads == maxThreads) break;
+    }
+  }
+}
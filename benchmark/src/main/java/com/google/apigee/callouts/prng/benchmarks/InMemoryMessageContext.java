@@ -0,0 +1,114 @@
+// InMemoryMessageContext.java
+// ------------------------------------------------------------------
+//
+// A lightweight stand-in for the Apigee MessageContext, backed by a
+// HashMap. Only the variable accessors are implemented; that is all
+// the callout uses. The other methods throw.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.prng.benchmarks;
+
+import com.apigee.flow.message.Connection;
+import com.apigee.flow.message.FlowContext;
+import com.apigee.flow.message.Message;
+import com.apigee.flow.message.MessageContext;
+import com.apigee.flow.message.TransportMessage;
+import java.util.HashMap;
+import java.util.Map;
+
+// A plain class rather than a dynamic proxy, so that a variable access
+// costs a map operation and nothing else: no argument array, and no
+// reflective dispatch, to blur the allocation figures from -prof gc.
+public final class InMemoryMessageContext implements MessageContext {
+  private final Map<String, Object> variables = new HashMap<String, Object>();
+
+  private InMemoryMessageContext() {}
+
+  public static MessageContext create() {
+    return new InMemoryMessageContext();
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getVariable(String name) {
+    return (T) variables.get(name);
+  }
+
+  public boolean setVariable(String name, Object value) {
+    variables.put(name, value);
+    return true;
+  }
+
+  public boolean removeVariable(String name) {
+    variables.remove(name);
+    return true;
+  }
+
+  // The callout uses only the variables.
+
+  public Message getErrorMessage() {
+    throw new UnsupportedOperationException("getErrorMessage");
+  }
+
+  public Message getRequestMessage() {
+    throw new UnsupportedOperationException("getRequestMessage");
+  }
+
+  public Message getResponseMessage() {
+    throw new UnsupportedOperationException("getResponseMessage");
+  }
+
+  public Message getMessage() {
+    throw new UnsupportedOperationException("getMessage");
+  }
+
+  public Message getMessage(FlowContext flowContext) {
+    throw new UnsupportedOperationException("getMessage");
+  }
+
+  public void setErrorMessage(Message message) {
+    throw new UnsupportedOperationException("setErrorMessage");
+  }
+
+  public void setRequestMessage(Message message) {
+    throw new UnsupportedOperationException("setRequestMessage");
+  }
+
+  public void setResponseMessage(Message message) {
+    throw new UnsupportedOperationException("setResponseMessage");
+  }
+
+  public void setMessage(FlowContext flowContext, Message message) {
+    throw new UnsupportedOperationException("setMessage");
+  }
+
+  public Message createMessage(TransportMessage transportMessage) {
+    throw new UnsupportedOperationException("createMessage");
+  }
+
+  public Connection getClientConnection() {
+    throw new UnsupportedOperationException("getClientConnection");
+  }
+
+  public Connection getTargetConnection() {
+    throw new UnsupportedOperationException("getTargetConnection");
+  }
+
+  @Override
+  public String toString() {
+    return "InMemoryMessageContext" + variables;
+  }
+}
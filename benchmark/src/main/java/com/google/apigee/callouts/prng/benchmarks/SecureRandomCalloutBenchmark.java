@@ -0,0 +1,108 @@
+// SecureRandomCalloutBenchmark.java
+// ------------------------------------------------------------------
+//
+// JMH benchmark for SecureRandomCallout.execute(), across algorithms
+// and output types. Run it via BenchmarkMain to sweep thread counts
+// and collect throughput, latency percentiles and allocation per op.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.prng.benchmarks;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.prng.SecureRandomCallout;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecureRandomCalloutBenchmark {
+
+  // One callout per benchmark, shared by all threads, as Apigee does
+  // with a policy.
+  @State(Scope.Benchmark)
+  public static class CalloutState {
+    @Param({"SHA1PRNG", "NativePRNG", "NativePRNGNonBlocking", "DRBG", "ChaCha20PRNG"})
+    public String algorithm;
+
+    // "range" is output-type int, with a range property.
+    @Param({"int", "range", "gaussian", "uuid"})
+    public String outputType;
+
+    // threadlocal, striped, or shared
+    @Param({"threadlocal"})
+    public String poolMode;
+
+    // secure, or fast for xoshiro256** seeded from the algorithm
+    @Param({"secure"})
+    public String strength;
+
+    SecureRandomCallout callout;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("algorithm", algorithm);
+      properties.put("pool-mode", poolMode);
+      properties.put("strength", strength);
+      if (outputType.equals("range")) {
+        properties.put("output-type", "int");
+        properties.put("range", "1,1000");
+      } else {
+        properties.put("output-type", outputType);
+      }
+      callout = new SecureRandomCallout(properties);
+    }
+  }
+
+  // One message context per thread, as with concurrent requests.
+  @State(Scope.Thread)
+  public static class RequestState {
+    MessageContext msgCtxt;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      msgCtxt = InMemoryMessageContext.create();
+    }
+  }
+
+  @Benchmark
+  public Object execute(CalloutState callout, RequestState request) {
+    ExecutionResult result = callout.callout.execute(request.msgCtxt, null);
+    if (result != ExecutionResult.SUCCESS) {
+      throw new IllegalStateException(
+          "execute failed: " + request.msgCtxt.getVariable("prng_error"));
+    }
+    return request.msgCtxt.getVariable("prng_random");
+  }
+}
@@ -0,0 +1,151 @@
+// StartupBenchmark.java
+// ------------------------------------------------------------------
+//
+// JMH benchmark for the cost of deploying the callout: loading its
+// classes, constructing it, and its first execute(). Each invocation
+// loads the callout's classes afresh, in a new class loader, as a new
+// deployment does, so nothing from an earlier invocation is reused but
+// the JDK's own classes. The first invocation in each fork is the cold
+// start of a message processor; the later ones are like a redeploy.
+//
+// Each fresh copy of the callout starts its own warm-up thread, which
+// exits after 30 seconds idle, so copies pile up for the length of a
+// run; keep the iterations in the tens.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.prng.benchmarks;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.MessageContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 20)
+@Fork(5)
+public class StartupBenchmark {
+  private static final String CALLOUT_CLASS = "com.google.apigee.callouts.prng.SecureRandomCallout";
+
+  // Loads the callout's classes itself, and everything else, including the
+  // Apigee interfaces and this benchmark, from its parent.
+  static final class FreshLoader extends ClassLoader {
+    FreshLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.startsWith("com.google.apigee.callouts.")
+          || name.startsWith(StartupBenchmark.class.getPackage().getName())) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+          byte[] bytes = read(name.replace('.', '/') + ".class");
+          c = defineClass(name, bytes, 0, bytes.length);
+        }
+        if (resolve) {
+          resolveClass(c);
+        }
+        return c;
+      }
+    }
+
+    private byte[] read(String path) throws ClassNotFoundException {
+      try (InputStream in = getParent().getResourceAsStream(path)) {
+        if (in == null) {
+          throw new ClassNotFoundException(path);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+          out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+      } catch (IOException e) {
+        throw new ClassNotFoundException(path, e);
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Deployment {
+    @Param({"SHA1PRNG", "NativePRNG", "ChaCha20PRNG"})
+    public String algorithm;
+
+    @Param({"uuid"})
+    public String outputType;
+
+    Map<String, String> properties;
+    ClassLoader loader;
+    MessageContext msgCtxt;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+      properties = new HashMap<String, String>();
+      properties.put("algorithm", algorithm);
+      properties.put("output-type", outputType);
+      loader = new FreshLoader(StartupBenchmark.class.getClassLoader());
+      msgCtxt = InMemoryMessageContext.create();
+    }
+
+    Object deploy() throws Exception {
+      Class<?> c = Class.forName(CALLOUT_CLASS, true, loader);
+      return c.getConstructor(Map.class).newInstance(properties);
+    }
+  }
+
+  // class loading and construction, as when a proxy is deployed
+  @Benchmark
+  public Object deploy(Deployment deployment) throws Exception {
+    return deployment.deploy();
+  }
+
+  // as deploy, plus the first request
+  @Benchmark
+  public Object deployAndExecute(Deployment deployment) throws Exception {
+    Object callout = deployment.deploy();
+    Method execute =
+        callout.getClass().getMethod("execute", MessageContext.class, ExecutionContext.class);
+    Object result = execute.invoke(callout, deployment.msgCtxt, null);
+    if (result != ExecutionResult.SUCCESS) {
+      throw new IllegalStateException(
+          "execute failed: " + deployment.msgCtxt.getVariable("prng_error"));
+    }
+    return deployment.msgCtxt.getVariable("prng_random");
+  }
+}
@@ -18,40 +18,33 @@ package com.google.apigee.callouts;
 import com.apigee.flow.message.MessageContext;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+// The properties are compiled into Settings, held in fields, when the
+// callout is constructed; the map of properties is not kept, or copied.
 public abstract class CalloutBase {
-  private static final String variableReferencePatternString =
-      "(.*?)\\{([^\\{\\} :][^\\{\\} ]*?)\\}(.*?)";
-  private static final Pattern variableReferencePattern =
-      Pattern.compile(variableReferencePatternString);
-  private static final String commonError = "^(.+?)[:;] (.+)$";
-  private static final Pattern commonErrorPattern = Pattern.compile(commonError);
-  protected final Map<String, String> properties;
+  private final boolean debug;
+  private final Setting<String> outputVariable;
 
-  public CalloutBase(Map properties) {
-    this.properties = genericizeMap(properties);
+  // compiled on first use; most errors are ValidationExceptions, which do
+  // not need it
+  private static final class CommonError {
+    static final Pattern PATTERN = Pattern.compile("^(.+?)[:;] (.+)$");
   }
 
-  private static Map<String, String> genericizeMap(Map properties) {
-    // convert an untyped Map to a generic map
-    Map<String, String> m = new HashMap<String, String>();
-    Iterator iterator = properties.keySet().iterator();
-    while (iterator.hasNext()) {
-      Object key = iterator.next();
-      Object value = properties.get(key);
-      if ((key instanceof String) && (value instanceof String)) {
-        m.put((String) key, (String) value);
-      }
-    }
-    return Collections.unmodifiableMap(m);
+  public CalloutBase(Map properties) {
+    this.debug = Boolean.parseBoolean(property(properties, "debug"));
+    this.outputVariable = compileProperty(properties, "output-variable", null, s -> s);
   }
 
+  // A property value, or null if there is none. Apigee passes an untyped
+  // Map; entries that are not strings are ignored.
+  protected static String property(Map properties, String propName) {
+    Object value = properties.get(propName);
+    return (value instanceof String) ? (String) value : null;
+  }
 
   public abstract String getVarnamePrefix();
 
@@ -60,16 +53,18 @@ public abstract class CalloutBase {
   }
 
   protected String getOutputVar(MessageContext msgCtxt) throws Exception {
-    String dest = getSimpleOptionalProperty("output-variable", msgCtxt);
+    return getOutputVar(msgCtxt, "message.content");
+  }
+
+  protected String getOutputVar(MessageContext msgCtxt, String defaultVar) throws Exception {
+    String dest = outputVariable.get(msgCtxt::getVariable);
     if (dest == null) {
-      return "message.content";
+      return defaultVar;
     }
     return dest;
   }
 
   protected boolean getDebug() {
-    String wantDebug = (String) this.properties.get("debug");
-    boolean debug = (wantDebug != null) && Boolean.parseBoolean(wantDebug);
     return debug;
   }
 
@@ -79,65 +74,22 @@ public abstract class CalloutBase {
     return s.trim();
   }
 
-  protected String getSimpleRequiredProperty(String propName, MessageContext msgCtxt)
-      throws Exception {
-    String value = (String) this.properties.get(propName);
-    if (value == null) {
-      throw new IllegalStateException(propName + " resolves to an empty string.");
-    }
-    value = value.trim();
-    if (value.equals("")) {
-      throw new IllegalStateException(propName + " resolves to an empty string.");
-    }
-    value = resolveVariableReferences(value, msgCtxt);
-    if (value == null || value.equals("")) {
-      throw new IllegalStateException(propName + " resolves to an empty string.");
-    }
-    return value;
-  }
-
-  protected String getSimpleOptionalProperty(String propName, MessageContext msgCtxt)
-      throws Exception {
-    Object value = this.properties.get(propName);
-    if (value == null) {
-      return null;
-    }
-    String v = (String) value;
-    v = v.trim();
-    if (v.equals("")) {
-      return null;
-    }
-    v = resolveVariableReferences(v, msgCtxt);
-    if (v == null || v.equals("")) {
-      return null;
-    }
-    return v;
-  }
-
-  private String resolveVariableReferences(String spec, MessageContext msgCtxt) {
-    Matcher matcher = variableReferencePattern.matcher(spec);
-    StringBuffer sb = new StringBuffer();
-    while (matcher.find()) {
-      matcher.appendReplacement(sb, "");
-      sb.append(matcher.group(1));
-      String ref = matcher.group(2);
-      String[] parts = ref.split(":", 2);
-      Object v = msgCtxt.getVariable(parts[0]);
-      if (v != null) {
-        sb.append((String) v);
-      } else if (parts.length > 1) {
-        sb.append(parts[1]);
-      }
-      sb.append(matcher.group(3));
-    }
-    matcher.appendTail(sb);
-    return sb.toString();
+  protected static <T> Setting<T> compileProperty(
+      Map properties, String propName, T defaultValue, Setting.Parser<T> parser) {
+    return Setting.compile(property(properties, propName), defaultValue, parser);
   }
 
   protected void setExceptionVariables(Exception exc1, MessageContext msgCtxt) {
+    if (exc1 instanceof ValidationException) {
+      // a known error, with its text already prepared
+      ValidationException ve = (ValidationException) exc1;
+      msgCtxt.setVariable(varName("exception"), ve.getDescription());
+      msgCtxt.setVariable(varName("error"), ve.getError());
+      return;
+    }
     String error = exc1.toString().replaceAll("\n", " ");
     msgCtxt.setVariable(varName("exception"), error);
-    Matcher matcher = commonErrorPattern.matcher(error);
+    Matcher matcher = CommonError.PATTERN.matcher(error);
     if (matcher.matches()) {
       msgCtxt.setVariable(varName("error"), matcher.group(2));
     } else {
@@ -0,0 +1,93 @@
+// Numbers.java
+// ------------------------------------------------------------------
+//
+// Parsing of numeric property values that may come from a request. A
+// bad value is reported with a ValidationException, without the cost of
+// a NumberFormatException and its stack trace, and integers are parsed
+// without allocating.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+public final class Numbers {
+  private Numbers() {}
+
+  public static int parseInt(String s, String name) throws ValidationException {
+    long value = parseLong(s, name);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw invalid(name, s);
+    return (int) value;
+  }
+
+  public static long parseLong(String s, String name) throws ValidationException {
+    long value = parseLong(s, 0, s.length(), Long.MIN_VALUE);
+    if (value == Long.MIN_VALUE && !isLongMinValue(s)) throw invalid(name, s);
+    return value;
+  }
+
+  // Parses the trimmed region as a decimal long, returning onError if it
+  // is not one.
+  public static long parseLong(String s, int begin, int end, long onError) {
+    while (begin < end && Character.isWhitespace(s.charAt(begin))) begin++;
+    while (end > begin && Character.isWhitespace(s.charAt(end - 1))) end--;
+    boolean negative = false;
+    if (begin < end && (s.charAt(begin) == '-' || s.charAt(begin) == '+')) {
+      negative = s.charAt(begin) == '-';
+      begin++;
+    }
+    if (begin == end) return onError;
+    // accumulate negatively, so that Long.MIN_VALUE can be represented
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long result = 0;
+    for (int i = begin; i < end; i++) {
+      int digit = Character.digit(s.charAt(i), 10);
+      if (digit < 0 || result < limit / 10) return onError;
+      result *= 10;
+      if (result < limit + digit) return onError;
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  private static boolean isLongMinValue(String s) {
+    return s.trim().equals("-9223372036854775808");
+  }
+
+  // Screens out most bad values before Double.parseDouble, which would
+  // throw for them. This accepts decimal and exponent notation only.
+  public static double parseDouble(String s, String name) throws ValidationException {
+    s = s.trim();
+    boolean digits = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits = true;
+      } else if (c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+        throw invalid(name, s);
+      }
+    }
+    if (!digits) throw invalid(name, s);
+    try {
+      return Double.parseDouble(s);
+    } catch (NumberFormatException e) {
+      throw invalid(name, s);
+    }
+  }
+
+  private static ValidationException invalid(String name, String value) {
+    return new ValidationException("invalid " + name + ": " + value);
+  }
+}
@@ -0,0 +1,124 @@
+// Setting.java
+// ------------------------------------------------------------------
+//
+// A callout property, compiled once when the callout is constructed.
+// A literal property is parsed up front and becomes a constant. A
+// property that refers to context variables keeps its pre-tokenized
+// Template, and is resolved and parsed on each request. The constants for
+// absent properties, which are most of them, are shared by all callouts.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+public abstract class Setting<T> {
+
+  public interface Parser<T> {
+    T parse(String value) throws Exception;
+  }
+
+  public abstract T get(Variables vars) throws Exception;
+
+  public abstract boolean isConstant();
+
+  private static final Setting<Object> NULL = newConstant(null);
+  private static final Setting<Boolean> TRUE = newConstant(Boolean.TRUE);
+  private static final Setting<Boolean> FALSE = newConstant(Boolean.FALSE);
+
+  @SuppressWarnings("unchecked")
+  public static <T> Setting<T> constant(final T value) {
+    if (value == null) return (Setting<T>) NULL;
+    if (value == Boolean.TRUE) return (Setting<T>) TRUE;
+    if (value == Boolean.FALSE) return (Setting<T>) FALSE;
+    return newConstant(value);
+  }
+
+  private static <T> Setting<T> newConstant(final T value) {
+    return new Setting<T>() {
+      public T get(Variables vars) {
+        return value;
+      }
+
+      public boolean isConstant() {
+        return true;
+      }
+    };
+  }
+
+  // A literal that does not parse is not an error at construction time;
+  // like any other invalid setting, it causes each execution to fail.
+  public static <T> Setting<T> failing(final Exception exception) {
+    return new Setting<T>() {
+      public T get(Variables vars) throws Exception {
+        throw exception;
+      }
+
+      public boolean isConstant() {
+        return true;
+      }
+    };
+  }
+
+  // For a templated property that is expensive to parse, reuses the last
+  // result while the resolved value stays the same.
+  public static <T> Parser<T> caching(final Parser<T> parser) {
+    return new Parser<T>() {
+      private volatile Object[] last; // {spec, value}
+
+      @SuppressWarnings("unchecked")
+      public T parse(String spec) throws Exception {
+        Object[] entry = last;
+        if (entry == null || !entry[0].equals(spec)) {
+          entry = new Object[] {spec, parser.parse(spec)};
+          last = entry;
+        }
+        return (T) entry[1];
+      }
+    };
+  }
+
+  public static <T> Setting<T> compile(
+      String spec, final T defaultValue, final Parser<T> parser) {
+    if (spec == null) {
+      return constant(defaultValue);
+    }
+    spec = spec.trim();
+    if (spec.equals("")) {
+      return constant(defaultValue);
+    }
+    final Template template = Template.parse(spec);
+    if (template.isLiteral()) {
+      try {
+        return constant(parser.parse(spec));
+      } catch (Exception e) {
+        return failing(e);
+      }
+    }
+    return new Setting<T>() {
+      public T get(Variables vars) throws Exception {
+        String v = template.resolve(vars);
+        if (v == null || v.equals("")) {
+          return defaultValue;
+        }
+        return parser.parse(v);
+      }
+
+      public boolean isConstant() {
+        return false;
+      }
+    };
+  }
+}
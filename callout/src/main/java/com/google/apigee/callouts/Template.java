@@ -0,0 +1,133 @@
+// Template.java
+// ------------------------------------------------------------------
+//
+// A property value, tokenized once into literal text and variable
+// references like {request.queryparam.max} or {request.queryparam.min:0}.
+// Resolving a template at runtime does only variable lookups and
+// concatenation.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class Template {
+  private final String literal;
+  // texts has one more element than names; a resolved value is
+  // texts[0] + value(names[0]) + texts[1] + ... + texts[n].
+  private final String[] texts;
+  private final String[] names;
+  private final String[] defaults;
+  private final int literalLength;
+
+  private Template(String literal) {
+    this.literal = literal;
+    this.texts = null;
+    this.names = null;
+    this.defaults = null;
+    this.literalLength = literal.length();
+  }
+
+  private Template(List<String> texts, List<String> names, List<String> defaults) {
+    this.literal = null;
+    this.texts = texts.toArray(new String[texts.size()]);
+    this.names = names.toArray(new String[names.size()]);
+    this.defaults = defaults.toArray(new String[defaults.size()]);
+    int length = 0;
+    for (String t : this.texts) length += t.length();
+    this.literalLength = length;
+  }
+
+  private static boolean isBoundary(char c) {
+    return c == '{' || c == '}' || c == ' ';
+  }
+
+  // A reference is a '{', a first character that is not a brace, space or
+  // colon, then any characters other than braces or spaces, then a '}'.
+  // Anything else is literal text. The text after the first colon in a
+  // reference is the default value, used when the variable is not set.
+  public static Template parse(String spec) {
+    List<String> texts = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    List<String> defaults = new ArrayList<String>();
+    int length = spec.length();
+    int textStart = 0;
+    int i = spec.indexOf('{');
+    while (i >= 0 && i + 1 < length) {
+      char first = spec.charAt(i + 1);
+      int end = -1;
+      if (!isBoundary(first) && first != ':') {
+        int k = i + 2;
+        while (k < length && !isBoundary(spec.charAt(k))) k++;
+        if (k < length && spec.charAt(k) == '}') end = k;
+      }
+      if (end < 0) {
+        i = spec.indexOf('{', i + 1);
+        continue;
+      }
+      texts.add(spec.substring(textStart, i));
+      String ref = spec.substring(i + 1, end);
+      int colon = ref.indexOf(':');
+      if (colon < 0) {
+        names.add(ref);
+        defaults.add(null);
+      } else {
+        names.add(ref.substring(0, colon));
+        defaults.add(ref.substring(colon + 1));
+      }
+      textStart = end + 1;
+      i = spec.indexOf('{', textStart);
+    }
+    if (names.isEmpty()) {
+      return new Template(spec);
+    }
+    texts.add(spec.substring(textStart));
+    return new Template(texts, names, defaults);
+  }
+
+  public boolean isLiteral() {
+    return literal != null;
+  }
+
+  public String resolve(Variables vars) {
+    if (literal != null) {
+      return literal;
+    }
+    if (names.length == 1 && texts[0].isEmpty() && texts[1].isEmpty()) {
+      return resolveOne(0, vars);
+    }
+    StringBuilder sb = new StringBuilder(literalLength + 16 * names.length);
+    for (int i = 0; i < names.length; i++) {
+      sb.append(texts[i]);
+      String v = resolveOne(i, vars);
+      if (v != null) {
+        sb.append(v);
+      }
+    }
+    sb.append(texts[names.length]);
+    return sb.toString();
+  }
+
+  private String resolveOne(int i, Variables vars) {
+    Object v = vars.getVariable(names[i]);
+    if (v != null) {
+      return (String) v;
+    }
+    return (defaults[i] != null) ? defaults[i] : "";
+  }
+}
@@ -0,0 +1,32 @@
+// Threads.java
+//
+// Tells whether the current thread is virtual. Virtual threads arrived in
+// Java 21; this is the version for earlier runtimes, which have none. The
+// Java 21 version is in src/main/java21, and is used from the
+// multi-release jar, on a Java 21 or later runtime.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+public final class Threads {
+  private Threads() {}
+
+  public static boolean isVirtual() {
+    return false;
+  }
+}
@@ -24,46 +24,133 @@
 package com.google.apigee.callouts;
 
 import java.security.SecureRandom;
+import java.util.UUID;
 
 public class UuidEx {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final char[] BASE64URL_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  // Per-thread scratch space, so that generating and rendering a UUID
+  // allocates nothing but the resulting String. A virtual thread, which
+  // typically renders just one, gets its own, rather than a ThreadLocal.
+  private static final class Scratch {
+    final byte[] bytes = new byte[16];
+    final char[] chars = new char[36];
+  }
+
+  private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  private static Scratch scratch() {
+    return Threads.isVirtual() ? new Scratch() : scratch.get();
+  }
+
+  public enum Format {
+    /** 8-4-4-4-12 hex digits with dashes, 36 chars */
+    STANDARD,
+    /** 32 hex digits, no dashes */
+    HEX,
+    /** the 16 bytes in base64url, without padding, 22 chars */
+    BASE64URL;
+
+    public static Format parse(String value) throws ValidationException {
+      switch (value) {
+        case "standard":
+          return STANDARD;
+        case "hex":
+          return HEX;
+        case "base64url":
+          return BASE64URL;
+        default:
+          throw new ValidationException("invalid uuid-format: " + value);
+      }
+    }
+  }
+
   private final long mostSigBits;
   private final long leastSigBits;
 
   public static UuidEx randomUUID(SecureRandom prng) {
-    byte[] randomBytes = new byte[16];
+    byte[] randomBytes = scratch().bytes;
 
     prng.nextBytes(randomBytes);
-    randomBytes[6] &= 0x0f; /* clear version        */
-    randomBytes[6] |= 0x40; /* set to version 4     */
-    randomBytes[8] &= 0x3f; /* clear variant        */
-    randomBytes[8] |= 0x80; /* set to IETF variant  */
-    return new UuidEx(randomBytes);
+    return fromRandomBytes(randomBytes, 0);
   }
 
-  private UuidEx(byte[] data) {
+  // Builds a version 4 UUID from 16 random bytes starting at offset, as when
+  // several UUIDs are carved from the result of one nextBytes() call.
+  public static UuidEx fromRandomBytes(byte[] randomBytes, int offset) {
     long msb = 0;
     long lsb = 0;
-    assert data.length == 16;
-    for (int i = 0; i < 8; i++) msb = (msb << 8) | (data[i] & 0xff);
-    for (int i = 8; i < 16; i++) lsb = (lsb << 8) | (data[i] & 0xff);
-    this.mostSigBits = msb;
-    this.leastSigBits = lsb;
+    assert randomBytes.length >= offset + 16;
+    for (int i = offset; i < offset + 8; i++) msb = (msb << 8) | (randomBytes[i] & 0xff);
+    for (int i = offset + 8; i < offset + 16; i++) lsb = (lsb << 8) | (randomBytes[i] & 0xff);
+    msb &= ~0xf000L; /* clear version        */
+    msb |= 0x4000L; /* set to version 4     */
+    lsb &= ~(0xc0L << 56); /* clear variant        */
+    lsb |= 0x80L << 56; /* set to IETF variant  */
+    return new UuidEx(msb, lsb);
   }
 
-  private static String digits(long val, int digits) {
-    long hi = 1L << (digits * 4);
-    return Long.toHexString(hi | (val & (hi - 1))).substring(1);
+  // Wraps bits that already carry a version and variant, as for a
+  // time-ordered (version 7) UUID.
+  public static UuidEx fromBits(long mostSigBits, long leastSigBits) {
+    return new UuidEx(mostSigBits, leastSigBits);
+  }
+
+  private UuidEx(long mostSigBits, long leastSigBits) {
+    this.mostSigBits = mostSigBits;
+    this.leastSigBits = leastSigBits;
+  }
+
+  // writes the low-order digits nibbles of val, as hex, at offset
+  private static void putHex(long val, int digits, char[] dest, int offset) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      dest[i] = HEX_DIGITS[(int) val & 0xf];
+      val >>>= 4;
+    }
+  }
+
+  // the 6 bits starting at bit position p, counting from the most
+  // significant bit of mostSigBits
+  private int sextet(int p) {
+    if (p + 6 <= 64) return (int) (mostSigBits >>> (58 - p)) & 0x3f;
+    if (p >= 64) return (int) (leastSigBits >>> (122 - p)) & 0x3f;
+    return (int) ((mostSigBits << (p - 58)) | (leastSigBits >>> (122 - p))) & 0x3f;
+  }
+
+  public UUID toUUID() {
+    return new UUID(mostSigBits, leastSigBits);
   }
 
   public String toString() {
-    return (digits(mostSigBits >> 32, 8)
-        + "-"
-        + digits(mostSigBits >> 16, 4)
-        + "-"
-        + digits(mostSigBits, 4)
-        + "-"
-        + digits(leastSigBits >> 48, 4)
-        + "-"
-        + digits(leastSigBits, 12));
+    return toString(Format.STANDARD);
+  }
+
+  public String toString(Format format) {
+    char[] chars = scratch().chars;
+    switch (format) {
+      case HEX:
+        putHex(mostSigBits, 16, chars, 0);
+        putHex(leastSigBits, 16, chars, 16);
+        return new String(chars, 0, 32);
+      case BASE64URL:
+        for (int i = 0; i < 21; i++) {
+          chars[i] = BASE64URL_DIGITS[sextet(i * 6)];
+        }
+        chars[21] = BASE64URL_DIGITS[((int) leastSigBits & 0x3) << 4];
+        return new String(chars, 0, 22);
+      default:
+        putHex(mostSigBits >>> 32, 8, chars, 0);
+        chars[8] = '-';
+        putHex(mostSigBits >>> 16, 4, chars, 9);
+        chars[13] = '-';
+        putHex(mostSigBits, 4, chars, 14);
+        chars[18] = '-';
+        putHex(leastSigBits >>> 48, 4, chars, 19);
+        chars[23] = '-';
+        putHex(leastSigBits, 12, chars, 24);
+        return new String(chars, 0, 36);
+    }
   }
 }
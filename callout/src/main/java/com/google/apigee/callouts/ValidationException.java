@@ -0,0 +1,48 @@
+// ValidationException.java
+// ------------------------------------------------------------------
+//
+// An error in the configuration, or in a value taken from the request.
+// These are ordinary, and a client can cause them on every request, so
+// the exception has no stack trace, and no suppressed exceptions. That
+// makes an instance immutable, so one with a fixed message can be created
+// once and thrown as often as needed. The text for the error variables is
+// computed here too, so that reporting the error needs no regex.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+public class ValidationException extends Exception {
+  private static final long serialVersionUID = 1L;
+  private final String error;
+  private final String description;
+
+  public ValidationException(String message) {
+    super(message, null, false, false);
+    this.error = (message.indexOf('\n') >= 0) ? message.replace('\n', ' ') : message;
+    this.description = getClass().getName() + ": " + error;
+  }
+
+  // the message, on one line
+  public String getError() {
+    return error;
+  }
+
+  // as toString, on one line
+  public String getDescription() {
+    return description;
+  }
+}
@@ -0,0 +1,28 @@
+// Variables.java
+// ------------------------------------------------------------------
+//
+// Where a Template finds the values of its variables. The callout adapts
+// its MessageContext to this, so that settings, and RandomService, need
+// nothing from Apigee.
+//
+// Copyright 2018-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+public interface Variables {
+  // the value of the variable, or null if it is not set
+  Object getVariable(String name);
+}
@@ -0,0 +1,111 @@
+// AliasTable.java
+//
+// A weighted choice among a fixed list of values, like "a:70,b:20,c:10",
+// using Vose's alias method. Building the table is O(n), and is done once
+// per configuration; each selection is O(1): one bounded draw to pick a
+// column, and one uniform draw to pick between the column's value and its
+// alias.
+//
+// See Vose, "A Linear Algorithm for Generating Random Numbers with a Given
+// Distribution", IEEE TSE, 1991.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+
+final class AliasTable {
+  private final String[] values;
+  private final double[] probability;
+  private final int[] alias;
+
+  private AliasTable(String[] values, double[] weights) {
+    int n = values.length;
+    this.values = values;
+    this.probability = new double[n];
+    this.alias = new int[n];
+
+    double sum = 0;
+    for (double w : weights) sum += w;
+    double[] scaled = new double[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0, largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / sum;
+      if (scaled[i] < 1.0) small[smallCount++] = i;
+      else large[largeCount++] = i;
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int l = small[--smallCount];
+      int g = large[--largeCount];
+      probability[l] = scaled[l];
+      alias[l] = g;
+      scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+      if (scaled[g] < 1.0) small[smallCount++] = g;
+      else large[largeCount++] = g;
+    }
+    // anything left over is, but for rounding error, exactly 1
+    while (largeCount > 0) probability[large[--largeCount]] = 1.0;
+    while (smallCount > 0) probability[small[--smallCount]] = 1.0;
+  }
+
+  // Each entry is a value, optionally followed by a colon and a
+  // non-negative weight. The weight defaults to 1. Weights need not sum
+  // to any particular total.
+  private static final ValidationException EMPTY_VALUE =
+      new ValidationException("choices has an empty value");
+  private static final ValidationException INVALID_WEIGHT =
+      new ValidationException("choices has an invalid weight");
+  private static final ValidationException NO_POSITIVE_WEIGHT =
+      new ValidationException("choices has no positive weight");
+
+  static AliasTable parse(String spec) throws ValidationException {
+    List<String> values = new ArrayList<String>();
+    List<Double> weights = new ArrayList<Double>();
+    double sum = 0;
+    int start = 0;
+    while (start <= spec.length()) {
+      int comma = spec.indexOf(',', start);
+      if (comma < 0) comma = spec.length();
+      String entry = spec.substring(start, comma);
+      int colon = entry.lastIndexOf(':');
+      String value = (colon < 0) ? entry.trim() : entry.substring(0, colon).trim();
+      double weight =
+          (colon < 0) ? 1.0 : Numbers.parseDouble(entry.substring(colon + 1), "choices weight");
+      if (value.isEmpty()) throw EMPTY_VALUE;
+      if (!(weight >= 0) || Double.isInfinite(weight)) throw INVALID_WEIGHT;
+      values.add(value);
+      weights.add(weight);
+      sum += weight;
+      start = comma + 1;
+    }
+    if (!(sum > 0)) throw NO_POSITIVE_WEIGHT;
+    double[] w = new double[weights.size()];
+    for (int i = 0; i < w.length; i++) w[i] = weights.get(i);
+    return new AliasTable(values.toArray(new String[values.size()]), w);
+  }
+
+  String next(RandomSource source) {
+    int column = (int) source.nextLong(0, values.length - 1);
+    return (source.nextDouble() < probability[column]) ? values[column] : values[alias[column]];
+  }
+}
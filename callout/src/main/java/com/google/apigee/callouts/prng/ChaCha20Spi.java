@@ -0,0 +1,233 @@
+// ChaCha20Spi.java
+//
+// A CSPRNG built on the ChaCha20 block function (RFC 8439), for the
+// algorithm ChaCha20PRNG. It uses Bernstein's "fast key erasure": each
+// refill computes a few blocks of keystream under the current key, takes
+// the first 32 bytes as the next key, and serves the rest, erasing each
+// byte as it goes. Earlier output can't be recovered from the state.
+//
+// The key is seeded from the operating system, and more seed from the
+// operating system is mixed in every RESEED_REFILLS refills. There is no
+// lock here; SecureRandom synchronizes calls on an SPI that does not
+// declare itself thread safe, and with pool-mode threadlocal, each thread
+// has its own instance.
+//
+// The block function is scalar, and keeps the state in locals, where the
+// JIT can hold it in registers. The Vector API does not exist for the
+// Java 8 build, and is still an incubator module in Java 21, which the
+// java21 source set could use only if every JVM that loads the callout
+// were started with --add-modules jdk.incubator.vector.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+
+final class ChaCha20Spi extends SecureRandomSpi {
+  private static final long serialVersionUID = 1L;
+  static final String ALGORITHM = "ChaCha20PRNG";
+  private static final int BLOCKS_PER_REFILL = 8;
+  private static final int BUFFER_SIZE = 64 * BLOCKS_PER_REFILL;
+  private static final int KEY_SIZE = 32;
+  private static final int RESEED_REFILLS = 1 << 14; // about 8 MiB of output
+
+  private final int[] key = new int[8];
+  private final int[] nonce = new int[3];
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = BUFFER_SIZE;
+  private int refills;
+
+  ChaCha20Spi() {
+    mixSeed(osSeed(KEY_SIZE + 12));
+  }
+
+  private static final class Os {
+    static final SecureRandom seeder = create();
+
+    private static SecureRandom create() {
+      try {
+        return SecureRandom.getInstance("NativePRNGNonBlocking");
+      } catch (NoSuchAlgorithmException e) {
+        return new SecureRandom(); // eg, on Windows
+      }
+    }
+  }
+
+  private static byte[] osSeed(int length) {
+    byte[] seed = new byte[length];
+    Os.seeder.nextBytes(seed);
+    return seed;
+  }
+
+  // XORs the seed into the key and nonce, 44 bytes at a time, and rekeys
+  // after each chunk, so every seed byte affects all the output.
+  private void mixSeed(byte[] seed) {
+    for (int offset = 0; offset < seed.length; offset += KEY_SIZE + 12) {
+      for (int i = 0; i < KEY_SIZE + 12 && offset + i < seed.length; i++) {
+        int b = (seed[offset + i] & 0xff) << (8 * (i & 3));
+        if (i < KEY_SIZE) key[i >> 2] ^= b;
+        else nonce[(i - KEY_SIZE) >> 2] ^= b;
+      }
+      refill();
+    }
+  }
+
+  private void refill() {
+    if (++refills >= RESEED_REFILLS) {
+      refills = 0;
+      byte[] seed = osSeed(KEY_SIZE);
+      for (int i = 0; i < KEY_SIZE; i++) key[i >> 2] ^= (seed[i] & 0xff) << (8 * (i & 3));
+    }
+    for (int b = 0; b < BLOCKS_PER_REFILL; b++) {
+      block(key, b, nonce, buffer, 64 * b);
+    }
+    for (int i = 0; i < 8; i++) key[i] = littleEndian(buffer, 4 * i);
+    Arrays.fill(buffer, 0, KEY_SIZE, (byte) 0);
+    position = KEY_SIZE;
+  }
+
+  private static int littleEndian(byte[] b, int i) {
+    return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | b[i + 3] << 24;
+  }
+
+  @Override
+  protected void engineSetSeed(byte[] seed) {
+    mixSeed(seed);
+  }
+
+  @Override
+  protected void engineNextBytes(byte[] bytes) {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (position == BUFFER_SIZE) refill();
+      int n = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+      System.arraycopy(buffer, position, bytes, offset, n);
+      Arrays.fill(buffer, position, position + n, (byte) 0);
+      position += n;
+      offset += n;
+    }
+  }
+
+  @Override
+  protected byte[] engineGenerateSeed(int numBytes) {
+    return osSeed(numBytes);
+  }
+
+  // The ChaCha20 block function: 20 rounds over the key, block counter
+  // and nonce, with the result serialized little-endian to out.
+  static void block(int[] key, int counter, int[] nonce, byte[] out, int offset) {
+    int x0 = 0x61707865, x1 = 0x3320646e, x2 = 0x79622d32, x3 = 0x6b206574;
+    int x4 = key[0], x5 = key[1], x6 = key[2], x7 = key[3];
+    int x8 = key[4], x9 = key[5], x10 = key[6], x11 = key[7];
+    int x12 = counter, x13 = nonce[0], x14 = nonce[1], x15 = nonce[2];
+    for (int round = 0; round < 10; round++) {
+      // columns
+      x0 += x4;
+      x12 = Integer.rotateLeft(x12 ^ x0, 16);
+      x8 += x12;
+      x4 = Integer.rotateLeft(x4 ^ x8, 12);
+      x0 += x4;
+      x12 = Integer.rotateLeft(x12 ^ x0, 8);
+      x8 += x12;
+      x4 = Integer.rotateLeft(x4 ^ x8, 7);
+      x1 += x5;
+      x13 = Integer.rotateLeft(x13 ^ x1, 16);
+      x9 += x13;
+      x5 = Integer.rotateLeft(x5 ^ x9, 12);
+      x1 += x5;
+      x13 = Integer.rotateLeft(x13 ^ x1, 8);
+      x9 += x13;
+      x5 = Integer.rotateLeft(x5 ^ x9, 7);
+      x2 += x6;
+      x14 = Integer.rotateLeft(x14 ^ x2, 16);
+      x10 += x14;
+      x6 = Integer.rotateLeft(x6 ^ x10, 12);
+      x2 += x6;
+      x14 = Integer.rotateLeft(x14 ^ x2, 8);
+      x10 += x14;
+      x6 = Integer.rotateLeft(x6 ^ x10, 7);
+      x3 += x7;
+      x15 = Integer.rotateLeft(x15 ^ x3, 16);
+      x11 += x15;
+      x7 = Integer.rotateLeft(x7 ^ x11, 12);
+      x3 += x7;
+      x15 = Integer.rotateLeft(x15 ^ x3, 8);
+      x11 += x15;
+      x7 = Integer.rotateLeft(x7 ^ x11, 7);
+      // diagonals
+      x0 += x5;
+      x15 = Integer.rotateLeft(x15 ^ x0, 16);
+      x10 += x15;
+      x5 = Integer.rotateLeft(x5 ^ x10, 12);
+      x0 += x5;
+      x15 = Integer.rotateLeft(x15 ^ x0, 8);
+      x10 += x15;
+      x5 = Integer.rotateLeft(x5 ^ x10, 7);
+      x1 += x6;
+      x12 = Integer.rotateLeft(x12 ^ x1, 16);
+      x11 += x12;
+      x6 = Integer.rotateLeft(x6 ^ x11, 12);
+      x1 += x6;
+      x12 = Integer.rotateLeft(x12 ^ x1, 8);
+      x11 += x12;
+      x6 = Integer.rotateLeft(x6 ^ x11, 7);
+      x2 += x7;
+      x13 = Integer.rotateLeft(x13 ^ x2, 16);
+      x8 += x13;
+      x7 = Integer.rotateLeft(x7 ^ x8, 12);
+      x2 += x7;
+      x13 = Integer.rotateLeft(x13 ^ x2, 8);
+      x8 += x13;
+      x7 = Integer.rotateLeft(x7 ^ x8, 7);
+      x3 += x4;
+      x14 = Integer.rotateLeft(x14 ^ x3, 16);
+      x9 += x14;
+      x4 = Integer.rotateLeft(x4 ^ x9, 12);
+      x3 += x4;
+      x14 = Integer.rotateLeft(x14 ^ x3, 8);
+      x9 += x14;
+      x4 = Integer.rotateLeft(x4 ^ x9, 7);
+    }
+    put(out, offset, x0 + 0x61707865);
+    put(out, offset + 4, x1 + 0x3320646e);
+    put(out, offset + 8, x2 + 0x79622d32);
+    put(out, offset + 12, x3 + 0x6b206574);
+    put(out, offset + 16, x4 + key[0]);
+    put(out, offset + 20, x5 + key[1]);
+    put(out, offset + 24, x6 + key[2]);
+    put(out, offset + 28, x7 + key[3]);
+    put(out, offset + 32, x8 + key[4]);
+    put(out, offset + 36, x9 + key[5]);
+    put(out, offset + 40, x10 + key[6]);
+    put(out, offset + 44, x11 + key[7]);
+    put(out, offset + 48, x12 + counter);
+    put(out, offset + 52, x13 + nonce[0]);
+    put(out, offset + 56, x14 + nonce[1]);
+    put(out, offset + 60, x15 + nonce[2]);
+  }
+
+  private static void put(byte[] out, int offset, int v) {
+    out[offset] = (byte) v;
+    out[offset + 1] = (byte) (v >>> 8);
+    out[offset + 2] = (byte) (v >>> 16);
+    out[offset + 3] = (byte) (v >>> 24);
+  }
+}
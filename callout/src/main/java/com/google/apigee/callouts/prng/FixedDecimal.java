@@ -0,0 +1,107 @@
+// FixedDecimal.java
+//
+// Renders a double with a fixed number of decimal digits, rounding half
+// up, like String.format("%.Nf", v), but without a Formatter and without
+// regard to the default locale: the decimal separator is always '.', and
+// there is no grouping. For values small enough to scale exactly into a
+// long, the scaled double is rounded directly; the last digit can then
+// differ from Formatter's only when the value lies within a rounding
+// error of a half-way point.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.ValidationException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+final class FixedDecimal {
+  static final int MAX_DIGITS = 30;
+  private static final ValidationException DIGITS_OUT_OF_RANGE =
+      new ValidationException(
+          String.format("decimal-digits must be between 0 and %d", MAX_DIGITS));
+  // beyond this, a scaled value may not be exact as a double
+  private static final double FAST_PATH_LIMIT = 1e15;
+  private static final double[] POWERS_OF_TEN = new double[16];
+
+  static {
+    double p = 1;
+    for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = p;
+      p *= 10;
+    }
+  }
+
+  private FixedDecimal() {}
+
+  static Integer parseDigits(String s) throws ValidationException {
+    int digits = Numbers.parseInt(s, "decimal-digits");
+    if (digits < 0 || digits > MAX_DIGITS) throw DIGITS_OUT_OF_RANGE;
+    return digits;
+  }
+
+  static String format(double v, int digits) {
+    return format(v, digits, RoundingMode.HALF_UP);
+  }
+
+  // Truncates rather than rounds, so that a value in [0, 1) never renders
+  // as 1.
+  static String formatTruncated(double v, int digits) {
+    return format(v, digits, RoundingMode.DOWN);
+  }
+
+  private static String format(double v, int digits, RoundingMode mode) {
+    if (digits < POWERS_OF_TEN.length) {
+      double scaled = Math.abs(v) * POWERS_OF_TEN[digits];
+      if (scaled < FAST_PATH_LIMIT) {
+        long units = (long) ((mode == RoundingMode.HALF_UP) ? scaled + 0.5 : scaled);
+        return format(v < 0, units, digits);
+      }
+    }
+    if (Double.isNaN(v) || Double.isInfinite(v)) {
+      return Double.toString(v);
+    }
+    // like Formatter, round the shortest decimal that identifies the double
+    return BigDecimal.valueOf(v).setScale(digits, mode).toPlainString();
+  }
+
+  // renders units / 10^digits
+  private static String format(boolean negative, long units, int digits) {
+    int unitDigits = 1;
+    for (long u = units / 10; u != 0; u /= 10) unitDigits++;
+    int length = Math.max(unitDigits, digits + 1) + (digits > 0 ? 1 : 0) + (negative ? 1 : 0);
+    char[] chars = new char[length];
+    int i = length;
+    for (int d = 0; d < digits; d++) {
+      chars[--i] = (char) ('0' + (units % 10));
+      units /= 10;
+    }
+    if (digits > 0) {
+      chars[--i] = '.';
+    }
+    do {
+      chars[--i] = (char) ('0' + (units % 10));
+      units /= 10;
+    } while (units != 0);
+    if (negative) {
+      chars[--i] = '-';
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,91 @@
+// Histogram.java
+//
+// A log-linear histogram of latencies, in the manner of HdrHistogram but
+// much smaller: values below 16 have exact buckets, and above that each
+// power of two is split into 8 buckets, so a recorded value is known to
+// within 12.5%. Recording is a couple of shifts and an atomic add.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+final class Histogram {
+  private static final int EXACT = 16;
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  static int bucketFor(long value) {
+    if (value < EXACT) return (int) Math.max(value, 0);
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return EXACT + (magnitude - 4) * SUB_BUCKETS + sub;
+  }
+
+  // the largest value that falls in the bucket
+  static long highestIn(int bucket) {
+    if (bucket < EXACT) return bucket;
+    int magnitude = (bucket - EXACT) / SUB_BUCKETS + 4;
+    long sub = (bucket - EXACT) % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BITS)) - 1;
+  }
+
+  void record(long value) {
+    counts.incrementAndGet(bucketFor(value));
+    count.increment();
+    sum.add(value);
+    long m = max.get();
+    while (value > m && !max.compareAndSet(m, value)) {
+      m = max.get();
+    }
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  long max() {
+    return max.get();
+  }
+
+  long mean() {
+    long n = count.sum();
+    return (n == 0) ? 0 : sum.sum() / n;
+  }
+
+  // The value at the given quantile, 0.0 to 1.0, to within a bucket.
+  long valueAt(double quantile) {
+    long n = count.sum();
+    if (n == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(quantile * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return Math.min(highestIn(i), max.get());
+    }
+    return max.get();
+  }
+}
@@ -0,0 +1,204 @@
+// Metrics.java
+//
+// Counters and latency histograms for one algorithm, kept by its
+// PrngCache, and optionally registered as an MXBean. Counting uses
+// LongAdder, which stays cheap under contention. Latency is recorded only
+// for a sample of requests, chosen by the metrics-sampling property, so
+// that timing does not burden every request.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+final class Metrics implements PrngMetricsMXBean {
+  // the system property that turns on the MXBeans
+  static final String JMX_PROPERTY = "com.google.apigee.callouts.prng.jmx";
+  private static final OutputType[] OUTPUT_TYPES = OutputType.values();
+  // lookups of algorithms that had no PrngCache, across all algorithms
+  static final LongAdder cacheMisses = new LongAdder();
+
+  private final String algorithm;
+  final LongAdder instancesCreated = new LongAdder();
+  final LongAdder reseeds = new LongAdder();
+  final LongAdder spareMisses = new LongAdder();
+  final LongAdder cacheHits = new LongAdder();
+  final Histogram getInstance = new Histogram();
+  private final LongAdder[] draws = new LongAdder[OUTPUT_TYPES.length];
+  private final LongAdder[] errors = new LongAdder[OUTPUT_TYPES.length];
+  private final AtomicReferenceArray<Histogram> latency =
+      new AtomicReferenceArray<Histogram>(OUTPUT_TYPES.length);
+  private volatile ObjectName registeredAs;
+
+  Metrics(String algorithm) {
+    this.algorithm = algorithm;
+    for (int i = 0; i < OUTPUT_TYPES.length; i++) {
+      draws[i] = new LongAdder();
+      errors[i] = new LongAdder();
+    }
+  }
+
+  // whether to time this request, for one in every N
+  static boolean sample(int every) {
+    return every > 0 && (every == 1 || ThreadLocalRandom.current().nextInt(every) == 0);
+  }
+
+  void recordDraws(OutputType type, int count) {
+    draws[type.ordinal()].add(count);
+  }
+
+  void recordError(OutputType type) {
+    errors[type.ordinal()].increment();
+  }
+
+  void recordLatency(OutputType type, long nanos) {
+    latency(type).record(nanos);
+  }
+
+  long draws(OutputType type) {
+    return draws[type.ordinal()].sum();
+  }
+
+  long errors(OutputType type) {
+    return errors[type.ordinal()].sum();
+  }
+
+  // created on first use; most algorithms see only a few output types
+  Histogram latency(OutputType type) {
+    int i = type.ordinal();
+    Histogram histogram = latency.get(i);
+    if (histogram == null) {
+      latency.compareAndSet(i, null, new Histogram());
+      histogram = latency.get(i);
+    }
+    return histogram;
+  }
+
+  // JMX is a convenience, and off unless the system property is true: the
+  // platform MBeanServer outlives the callout, and a registered bean holds
+  // the callout's class loader until it is unregistered. Without
+  // permission to register, do without. A bean left by an earlier
+  // deployment of the callout is replaced, which releases that one.
+  void register() {
+    if (!Boolean.getBoolean(JMX_PROPERTY)) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name =
+          new ObjectName(
+              "com.google.apigee.callouts.prng:type=PrngMetrics,algorithm="
+                  + ObjectName.quote(algorithm));
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      registeredAs = name;
+    } catch (Exception e) {
+      // no JMX view, eg, for a SecurityException
+    }
+  }
+
+  void unregister() {
+    ObjectName name = registeredAs;
+    if (name == null) {
+      return;
+    }
+    registeredAs = null;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      // a bean of the same name from a later deployment has its own loader
+      if (server.getClassLoaderFor(name) == Metrics.class.getClassLoader()) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      // already gone
+    }
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  public long getInstancesCreated() {
+    return instancesCreated.sum();
+  }
+
+  public long getReseeds() {
+    return reseeds.sum();
+  }
+
+  public long getSpareMisses() {
+    return spareMisses.sum();
+  }
+
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  public long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  public long getGetInstanceMeanNanos() {
+    return getInstance.mean();
+  }
+
+  public long getGetInstanceMaxNanos() {
+    return getInstance.max();
+  }
+
+  public Map<String, Long> getDraws() {
+    return byOutputType(this::draws);
+  }
+
+  public Map<String, Long> getErrors() {
+    return byOutputType(this::errors);
+  }
+
+  public Map<String, Long> getLatencyP50Nanos() {
+    return byOutputType(t -> latency(t).valueAt(0.5));
+  }
+
+  public Map<String, Long> getLatencyP99Nanos() {
+    return byOutputType(t -> latency(t).valueAt(0.99));
+  }
+
+  public Map<String, Long> getLatencyMaxNanos() {
+    return byOutputType(t -> latency(t).max());
+  }
+
+  // only the output types that have been used
+  private Map<String, Long> byOutputType(Function<OutputType, Long> f) {
+    Map<String, Long> map = new LinkedHashMap<String, Long>();
+    for (OutputType type : OUTPUT_TYPES) {
+      if (draws(type) > 0 || errors(type) > 0) {
+        map.put(type.toString(), f.apply(type));
+      }
+    }
+    return map;
+  }
+}
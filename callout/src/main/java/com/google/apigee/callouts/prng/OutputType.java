@@ -0,0 +1,66 @@
+// OutputType.java
+//
+// The kinds of values the SecureRandomCallout can generate.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.ValidationException;
+
+enum OutputType {
+  INT("int", 4, false),
+  LONG("long", 8, false),
+  // two doubles per attempt of the polar method, which yields two values
+  GAUSSIAN("gaussian", 16, false),
+  DOUBLE("double", 8, false),
+  EXPONENTIAL("exponential", 8, false),
+  CHOICE("choice", 12, true),
+  // for tokens, the bytes depend on the length and alphabet
+  HEX("hex", 0, true),
+  BASE64URL("base64url", 0, true),
+  ALPHANUMERIC("alphanumeric", 0, true),
+  CUSTOM("custom", 0, true),
+  UUID("uuid", 16, true),
+  UUIDV7("uuidv7", 16, true),
+  ULID("ulid", 16, true);
+
+  private final String value;
+  // the number of random bytes typically consumed for one value
+  final int bytesPerValue;
+  // whether the value is quoted in a JSON array
+  final boolean quoted;
+
+  OutputType(String value, int bytesPerValue, boolean quoted) {
+    this.value = value;
+    this.bytesPerValue = bytesPerValue;
+    this.quoted = quoted;
+  }
+
+  public String toString() {
+    return value;
+  }
+
+  static OutputType parse(String value) throws ValidationException {
+    for (OutputType type : values()) {
+      if (type.value.equals(value)) {
+        return type;
+      }
+    }
+    throw new ValidationException("invalid output-type: " + value);
+  }
+}
@@ -0,0 +1,213 @@
+// Pipeline.java
+//
+// Keeps values generated ahead of use, for RandomService.take(). Each
+// consumer thread has its own SpscRing, filled by one of a fixed set of
+// producer threads; each producer serves the rings assigned to it,
+// round-robin. Taking a value is then a read from the thread's own
+// ring, with no lock and no call into a SecureRandom.
+//
+// A producer refills a ring once it is half empty, with all the values
+// it needs from a single draw, and sleeps while there is nothing to do.
+// The consumer wakes it when its ring falls to half. An empty ring is not
+// an error: the caller generates the value itself. Virtual threads get no
+// ring, as a ring for each would cost more than it saves; they always
+// generate their own values.
+//
+// A ring holds unused secrets in memory until they are taken. The rings
+// of threads that have ended are cleared and dropped by their producer;
+// close() waits, for a bounded time, for the producers to stop, and then
+// clears every ring.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Threads;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+final class Pipeline {
+  // how long an idle producer sleeps before it looks for ended threads
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // how long close() waits for the producers, in all; one may be in the
+  // middle of a draw from a slow SecureRandom
+  private static final long CLOSE_WAIT_MILLIS = 2000;
+
+  interface Fill {
+    // generates n values, from one draw, into the ring
+    void fill(SpscRing<String> ring, int n) throws Exception;
+  }
+
+  private final int ringSize;
+  private final Fill fill;
+  private final Producer[] producers;
+  private final ThreadLocal<Ring> perThread;
+  private final AtomicInteger assigned;
+  private volatile boolean closed;
+
+  private static final class Ring extends SpscRing<String> {
+    final WeakReference<Thread> owner;
+    final Producer producer;
+
+    Ring(int capacity, Thread owner, Producer producer) {
+      super(capacity);
+      this.owner = new WeakReference<Thread>(owner);
+      this.producer = producer;
+    }
+  }
+
+  private final class Producer implements Runnable {
+    final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<Ring>();
+    Thread thread;
+
+    public void run() {
+      while (!closed) {
+        boolean filled = false;
+        for (Ring ring : rings) {
+          Thread owner = ring.owner.get();
+          if (owner == null || !owner.isAlive()) {
+            rings.remove(ring);
+            ring.clear();
+            continue;
+          }
+          int free = ring.capacity() - ring.size();
+          if (free >= ring.capacity() / 2) {
+            try {
+              fill.fill(ring, free);
+              filled = true;
+            } catch (Exception e) {
+              // the consumer generates its own values until this passes
+            }
+          }
+        }
+        if (!filled) {
+          LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+      }
+    }
+
+    void wake() {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private Pipeline(int ringSize, int threads, Fill fill) {
+    this.ringSize = ringSize;
+    this.fill = fill;
+    this.producers = new Producer[threads];
+    this.perThread = new ThreadLocal<Ring>();
+    this.assigned = new AtomicInteger();
+  }
+
+  // Starts the producers. Returns null if the runtime does not permit
+  // them, in which case values are generated as they are taken.
+  static Pipeline start(int ringSize, int threads, Fill fill) {
+    Pipeline pipeline = new Pipeline(ringSize, threads, fill);
+    try {
+      for (int i = 0; i < threads; i++) {
+        Producer producer = pipeline.new Producer();
+        producer.thread = new Thread(producer, "prng-producer-" + i);
+        producer.thread.setDaemon(true);
+        pipeline.producers[i] = producer;
+      }
+      for (Producer producer : pipeline.producers) {
+        producer.thread.start();
+      }
+      return pipeline;
+    } catch (RuntimeException e) {
+      pipeline.close(); // eg, a SecurityException
+      return null;
+    }
+  }
+
+  // A value from this thread's ring, or null if there is none ready.
+  String take() {
+    if (closed || Threads.isVirtual()) {
+      return null;
+    }
+    Ring ring = perThread.get();
+    if (ring == null) {
+      Producer producer = producers[(assigned.getAndIncrement() & 0x7fffffff) % producers.length];
+      ring = new Ring(ringSize, Thread.currentThread(), producer);
+      perThread.set(ring);
+      producer.rings.add(ring);
+      producer.wake();
+      return null;
+    }
+    String value = ring.poll();
+    if (value == null || ring.size() == ring.capacity() / 2) {
+      ring.producer.wake();
+    }
+    return value;
+  }
+
+  // Stops the producers, waits for them, and clears the rings. take()
+  // returns null from here on.
+  void close() {
+    closed = true;
+    for (Producer producer : producers) {
+      if (producer != null && producer.thread != null) {
+        producer.wake();
+      }
+    }
+    long deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+    try {
+      for (Producer producer : producers) {
+        long wait = deadline - System.currentTimeMillis();
+        if (producer != null && producer.thread != null && wait > 0) {
+          producer.thread.join(wait);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Producer producer : producers) {
+      if (producer != null) {
+        for (Ring ring : producer.rings) {
+          ring.clear();
+        }
+        producer.rings.clear();
+      }
+    }
+  }
+
+  // whether every producer has stopped
+  boolean stopped() {
+    for (Producer producer : producers) {
+      if (producer != null && producer.thread != null && producer.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the values waiting, in all rings
+  int waiting() {
+    int waiting = 0;
+    for (Producer producer : producers) {
+      if (producer != null) {
+        for (Ring ring : producer.rings) {
+          waiting += ring.size();
+        }
+      }
+    }
+    return waiting;
+  }
+}
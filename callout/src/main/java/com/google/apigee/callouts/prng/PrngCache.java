@@ -0,0 +1,558 @@
+// PrngCache.java
+//
+// Caches SecureRandom instances for one algorithm. It is expensive to
+// create and seed a SecureRandom, so instances are created once and
+// reused, in one of three ways:
+//
+//   threadlocal - one instance per thread. No contention, but one instance,
+//                 and one seeding, for every thread that runs the callout.
+//   striped     - a fixed set of instances, about one per core, each
+//                 shared by the threads whose IDs hash to it.
+//   shared      - one instance for all threads.
+//
+// SecureRandom is thread safe, so sharing needs no locks here; for some
+// algorithms, the SecureRandom itself synchronizes.
+//
+// Each thread also has a lightweight SecureRandomSource per algorithm,
+// holding its scratch space and buffer. It is bound to the chosen instance
+// on each use. A virtual thread, which typically runs the callout once,
+// borrows a source from a SourcePool instead, and returns it after use;
+// in pool-mode threadlocal, the instance goes with the source, so there
+// are about as many instances as carrier threads, not one per virtual
+// thread.
+//
+// There is one PrngCache per algorithm, held in a static map. A callout
+// with a literal algorithm looks up its PrngCache once, when it is
+// constructed, and never touches the map on the request path.
+//
+// Creating a PrngCache starts a warm-up on a background thread. It seeds
+// the shared instance, and keeps seeded spare instances ready, so that a
+// thread that needs its own instance, or a stripe, takes a spare instead
+// of seeding one inline. Taking a spare starts a refill. The number of
+// spares kept starts small, and grows to the largest number of threads
+// seen waiting for their own instance at once, so that the next burst of
+// new threads, as when a thread pool grows, finds its spares ready.
+// Until a spare is ready, a thread in threadlocal mode uses a stripe,
+// rather than the single shared instance, so a request never waits on
+// seeding, and waiting threads spread over the stripes. If the runtime
+// does not permit a background thread, instances are created inline, as
+// they would be without warm-up.
+//
+// The same spares serve reseeding. A caller with a reseed interval that
+// finds its instance due swaps in a spare, and carries on with the old
+// instance if none is ready yet. Instances are replaced rather than
+// reseeded in place, because SecureRandom.reseed is not available before
+// Java 9, and setSeed only adds to the existing seed.
+//
+// Resolving an algorithm name walks the list of security providers, and
+// for an unknown name, ends by throwing. So a name is first checked
+// against the set of names the providers offer, and an unknown name is
+// rejected from that, with a ValidationException, which has no stack
+// trace. A known name is resolved once, to its provider's service; the
+// set of known names bounds that map. The algorithms of PrngProvider,
+// like ChaCha20PRNG, are resolved to it before the JVM's providers are
+// tried.
+//
+// Caches are keyed by the service's own name for the algorithm, so that
+// names that differ only in case, or aliases, share one PrngCache. Only a
+// few algorithms are installed in any JVM; a name that would need a cache
+// beyond the limit fails, rather than getting a cache of its own that is
+// created, warmed and discarded on each request.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Threads;
+import com.google.apigee.callouts.ValidationException;
+import com.google.apigee.callouts.prng.RandomSource.SecureRandomSource;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class PrngCache {
+  enum Mode {
+    THREADLOCAL,
+    STRIPED,
+    SHARED;
+
+    static Mode parse(String value) throws ValidationException {
+      switch (value) {
+        case "threadlocal":
+          return THREADLOCAL;
+        case "striped":
+          return STRIPED;
+        case "shared":
+          return SHARED;
+        default:
+          throw new ValidationException("invalid pool-mode: " + value);
+      }
+    }
+  }
+
+  // keyed by canonical name, so this holds one entry per installed
+  // algorithm in use
+  private static final int MAX_CACHED_ALGORITHMS = 16;
+  private static final ConcurrentMap<String, PrngCache> byAlgorithm =
+      new ConcurrentHashMap<String, PrngCache>();
+  private static final ValidationException TOO_MANY_ALGORITHMS =
+      new ValidationException(
+          String.format("no more than %d algorithms can be in use", MAX_CACHED_ALGORITHMS));
+
+  // known names, in upper case, to their services
+  private static final ConcurrentMap<String, Provider.Service> services =
+      new ConcurrentHashMap<String, Provider.Service>();
+
+  static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+  // the spares kept at first, and the most that demand can raise that to
+  private static final int SPARES = Math.max(4, Math.min(STRIPES, 8));
+  private static final int MAX_SPARES = 1024;
+  private static final int MAX_IDLE_SOURCES = STRIPES * 2;
+
+  final String algorithm;
+  private final Provider provider;
+  final Metrics metrics;
+  private final ThreadLocal<SecureRandomSource> perThread;
+  final SourcePool<SecureRandomSource> pooled;
+  private final AtomicReferenceArray<Generator> stripes;
+  private final AtomicReference<Generator> shared;
+  private final ConcurrentLinkedQueue<Generator> spares;
+  private final AtomicInteger spareTarget;
+  // threads in threadlocal mode found waiting for an instance of their
+  // own, since the spares last caught up
+  private final AtomicInteger waiting;
+  private final AtomicBoolean refilling;
+
+  // A SecureRandom instance, with what a reseed interval needs to know.
+  static final class Generator {
+    final SecureRandom prng;
+    private final long seededAt;
+    private final AtomicLong draws;
+
+    Generator(SecureRandom prng) {
+      this.prng = prng;
+      this.seededAt = System.nanoTime();
+      this.draws = new AtomicLong();
+    }
+
+    // Counts the values about to be drawn, and checks the total against the
+    // interval. Draws are counted only by callers that have a draw interval.
+    boolean due(long maxDraws, long maxAgeNanos, long values) {
+      return (maxDraws > 0 && draws.addAndGet(values) > maxDraws)
+          || (maxAgeNanos > 0 && System.nanoTime() - seededAt > maxAgeNanos);
+    }
+  }
+
+  private PrngCache(String algorithm, Provider provider) throws NoSuchAlgorithmException {
+    this.algorithm = algorithm;
+    this.provider = provider;
+    this.metrics = new Metrics(algorithm);
+    SecureRandom first = newInstance();
+    this.perThread = ThreadLocal.withInitial(() -> new SecureRandomSource(null));
+    this.pooled = new SourcePool<SecureRandomSource>(MAX_IDLE_SOURCES, this::newPooledSource);
+    this.stripes = new AtomicReferenceArray<Generator>(STRIPES);
+    this.shared = new AtomicReference<Generator>(new Generator(first));
+    this.spares = new ConcurrentLinkedQueue<Generator>();
+    this.spareTarget = new AtomicInteger(SPARES);
+    this.waiting = new AtomicInteger();
+    this.refilling = new AtomicBoolean(true);
+  }
+
+  // Starts the warm-up, once this cache is the one in the map.
+  private void start() {
+    if (!Warmup.submit(this::warm)) {
+      refilling.set(false);
+    }
+    metrics.register();
+  }
+
+  // Runs on the warm-up thread. Helper threads exist only to do this.
+  private static final class Warmup {
+    // The thread exits after this long with no work, and starts again with
+    // the next task, so that an undeployed callout leaves no thread behind
+    // to hold its class loader.
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final ExecutorService executor = start();
+
+    private static ExecutorService start() {
+      try {
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(
+                1,
+                1,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                r -> {
+                  Thread t = new Thread(r, "prng-warmup");
+                  t.setDaemon(true);
+                  return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+      } catch (RuntimeException e) {
+        return null; // eg, a SecurityException
+      }
+    }
+
+    static boolean submit(Runnable task) {
+      if (executor == null) return false;
+      try {
+        executor.execute(task);
+        return true;
+      } catch (RuntimeException e) {
+        return false;
+      }
+    }
+  }
+
+  private void warm() {
+    try {
+      seed(shared.get().prng);
+      while (spares.size() < spareTarget.get()) {
+        spares.add(new Generator(seed(newInstance())));
+      }
+      // caught up; the next burst is counted afresh
+      waiting.set(0);
+    } catch (Exception e) {
+      // the algorithm was valid when this cache was created; threads that
+      // find no spare create their own instances
+    } finally {
+      refilling.set(false);
+    }
+  }
+
+  private SecureRandom newInstance() throws NoSuchAlgorithmException {
+    long start = System.nanoTime();
+    SecureRandom prng = SecureRandom.getInstance(algorithm, provider);
+    metrics.getInstance.record(System.nanoTime() - start);
+    metrics.instancesCreated.increment();
+    return prng;
+  }
+
+  private SecureRandomSource newPooledSource() {
+    SecureRandomSource source = new SecureRandomSource(null);
+    source.pool = pooled;
+    return source;
+  }
+
+  // forces seeding, which some algorithms defer until the first draw
+  private static SecureRandom seed(SecureRandom prng) {
+    prng.nextBytes(new byte[1]);
+    return prng;
+  }
+
+  // A seeded instance, for a thread or a stripe that has none, or to replace
+  // one that is due for reseeding. Returns null if no spare is ready, in
+  // which case the caller makes do for now, and asks again on its next use.
+  private Generator takeSpare() throws NoSuchAlgorithmException {
+    Generator spare = spares.poll();
+    if (spare == null) {
+      metrics.spareMisses.increment();
+    }
+    if (spares.size() < spareTarget.get() && refilling.compareAndSet(false, true)) {
+      if (!Warmup.submit(this::warm)) {
+        refilling.set(false);
+        if (spare == null) {
+          spare = new Generator(newInstance());
+        }
+      }
+    }
+    return spare;
+  }
+
+  // Swaps a spare into the slot, if the generator there is due. Another
+  // thread may get there first, in which case the spare goes back.
+  private Generator renew(
+      AtomicReference<Generator> slot,
+      Generator current,
+      long maxDraws,
+      long maxAgeNanos,
+      long values)
+      throws NoSuchAlgorithmException {
+    if (!current.due(maxDraws, maxAgeNanos, values)) return current;
+    Generator fresh = takeSpare();
+    if (fresh == null) return current;
+    if (slot.compareAndSet(current, fresh)) {
+      metrics.reseeds.increment();
+      return fresh;
+    }
+    spares.offer(fresh);
+    return slot.get();
+  }
+
+  static void preload(String algorithms, Set<String> allowed)
+      throws NoSuchAlgorithmException, ValidationException {
+    for (String algorithm : algorithms.split(",")) {
+      algorithm = algorithm.trim();
+      if (!algorithm.isEmpty()) {
+        forAlgorithm(algorithm, allowed);
+      }
+    }
+  }
+
+  private static int stripeCount(int cores) {
+    int n = 1;
+    while (n < cores) n <<= 1;
+    return n;
+  }
+
+  // As forAlgorithm, for an algorithm that must be in the allowed set,
+  // unless the set is null.
+  static PrngCache forAlgorithm(String algorithm, Set<String> allowed)
+      throws NoSuchAlgorithmException, ValidationException {
+    if (allowed != null && !allowed.contains(algorithm)) {
+      throw new ValidationException("algorithm not allowed: " + algorithm);
+    }
+    return forAlgorithm(algorithm);
+  }
+
+  // The SecureRandom algorithm names, and aliases, that the installed
+  // providers offer, in upper case, since getInstance ignores case. Built
+  // again when the number of installed providers changes.
+  private static final class KnownNames {
+    final int providers;
+    final Set<String> names = new HashSet<String>();
+
+    KnownNames(Provider[] installed) {
+      this.providers = installed.length;
+      add(PrngProvider.INSTANCE);
+      for (Provider provider : installed) {
+        add(provider);
+      }
+    }
+
+    private void add(Provider provider) {
+      for (Provider.Service service : provider.getServices()) {
+        if (service.getType().equals("SecureRandom")) {
+          names.add(key(service.getAlgorithm()));
+        }
+      }
+      for (String property : provider.stringPropertyNames()) {
+        if (property.startsWith(ALIAS_PREFIX)) {
+          names.add(key(property.substring(ALIAS_PREFIX.length())));
+        }
+      }
+    }
+  }
+
+  private static final String ALIAS_PREFIX = "Alg.Alias.SecureRandom.";
+  private static volatile KnownNames knownNames;
+
+  private static String key(String algorithm) {
+    return algorithm.toUpperCase(Locale.ENGLISH);
+  }
+
+  private static boolean isKnown(String key) {
+    KnownNames known = knownNames;
+    if (known != null && known.names.contains(key)) {
+      return true;
+    }
+    Provider[] installed = Security.getProviders();
+    if (known == null || known.providers != installed.length) {
+      known = new KnownNames(installed);
+      knownNames = known;
+    }
+    return known.names.contains(key);
+  }
+
+  private static Provider.Service resolve(String algorithm) throws ValidationException {
+    String key = key(algorithm);
+    Provider.Service service = services.get(key);
+    if (service != null) return service;
+    // An unknown name, perhaps one of many from a request, is rejected
+    // without walking the providers, and is not remembered.
+    if (!isKnown(key)) {
+      throw new ValidationException(algorithm + " SecureRandom not available");
+    }
+    service = PrngProvider.INSTANCE.getService("SecureRandom", algorithm);
+    if (service == null) {
+      try {
+        // an unseeded instance, so cheap
+        Provider provider = SecureRandom.getInstance(algorithm).getProvider();
+        service = provider.getService("SecureRandom", algorithm);
+        if (service == null) {
+          // a provider that does not list its services; use the name as is
+          service = new Provider.Service(provider, "SecureRandom", algorithm, "", null, null);
+        }
+      } catch (NoSuchAlgorithmException nsae) {
+        throw new ValidationException(nsae.getMessage());
+      }
+    }
+    services.putIfAbsent(key, service);
+    return service;
+  }
+
+  static void unregisterMetrics() {
+    for (PrngCache cache : byAlgorithm.values()) {
+      cache.metrics.unregister();
+    }
+  }
+
+  static PrngCache forAlgorithm(String algorithm)
+      throws NoSuchAlgorithmException, ValidationException {
+    PrngCache cache = byAlgorithm.get(algorithm);
+    if (cache == null) {
+      // resolve fails for an unknown algorithm, so only valid algorithms
+      // are cached
+      Provider.Service service = resolve(algorithm);
+      String canonical = service.getAlgorithm();
+      cache = byAlgorithm.get(canonical);
+      if (cache == null) {
+        if (byAlgorithm.size() >= MAX_CACHED_ALGORITHMS) {
+          throw TOO_MANY_ALGORITHMS;
+        }
+        Metrics.cacheMisses.increment();
+        PrngCache created = new PrngCache(canonical, service.getProvider());
+        cache = byAlgorithm.putIfAbsent(canonical, created);
+        if (cache == null) {
+          created.start();
+          return created;
+        }
+      }
+    }
+    cache.metrics.cacheHits.increment();
+    return cache;
+  }
+
+  SecureRandomSource source(Mode mode) throws NoSuchAlgorithmException {
+    return source(mode, 0, 0, 1);
+  }
+
+  // This thread's source, bound to an instance chosen according to mode,
+  // for drawing the given number of values. An instance that has served
+  // maxDraws values, or is older than maxAgeNanos, is replaced; zero means
+  // no limit. The caller releases the source when done with it, which
+  // returns it to the pool if it was borrowed, for a virtual thread.
+  SecureRandomSource source(Mode mode, long maxDraws, long maxAgeNanos, long values)
+      throws NoSuchAlgorithmException {
+    SecureRandomSource source = Threads.isVirtual() ? pooled.borrow() : perThread.get();
+    return bind(source, mode, maxDraws, maxAgeNanos, values);
+  }
+
+  SecureRandomSource bind(
+      SecureRandomSource source, Mode mode, long maxDraws, long maxAgeNanos, long values)
+      throws NoSuchAlgorithmException {
+    boolean reseeding = maxDraws > 0 || maxAgeNanos > 0;
+    switch (mode) {
+      case THREADLOCAL:
+        if (source.own == null
+            || (reseeding && source.own.due(maxDraws, maxAgeNanos, values))) {
+          Generator spare = takeSpare();
+          if (spare != null) {
+            if (source.own != null) {
+              metrics.reseeds.increment();
+            }
+            source.own = spare;
+          } else if (source.own == null && !source.waiting) {
+            source.waiting = true;
+            raiseSpareTarget(SPARES + waiting.incrementAndGet());
+          }
+        }
+        source.prng =
+            (source.own != null) ? source.own.prng : stripe(0, 0, values, false).prng;
+        break;
+      case STRIPED:
+        source.prng = stripe(maxDraws, maxAgeNanos, values, reseeding).prng;
+        break;
+      default:
+        Generator generator = shared.get();
+        if (reseeding) {
+          generator = renew(shared, generator, maxDraws, maxAgeNanos, values);
+        }
+        source.prng = generator.prng;
+        break;
+    }
+    return source;
+  }
+
+  private Generator stripe(long maxDraws, long maxAgeNanos, long values, boolean reseeding)
+      throws NoSuchAlgorithmException {
+    int index = probe(Thread.currentThread().getId()) & (STRIPES - 1);
+    Generator generator = stripes.get(index);
+    if (generator == null) {
+      Generator spare = takeSpare();
+      if (spare == null) {
+        return shared.get();
+      }
+      if (stripes.compareAndSet(index, null, spare)) {
+        generator = spare;
+      } else {
+        // another thread filled the stripe first; the spare goes back
+        spares.offer(spare);
+        generator = stripes.get(index);
+      }
+    } else if (reseeding && generator.due(maxDraws, maxAgeNanos, values)) {
+      Generator fresh = takeSpare();
+      if (fresh != null) {
+        if (stripes.compareAndSet(index, generator, fresh)) {
+          metrics.reseeds.increment();
+          generator = fresh;
+        } else {
+          spares.offer(fresh);
+          generator = stripes.get(index);
+        }
+      }
+    }
+    return generator;
+  }
+
+  private void raiseSpareTarget(int wanted) {
+    int target = spareTarget.get();
+    while (target < wanted && target < MAX_SPARES) {
+      if (spareTarget.compareAndSet(target, Math.min(wanted, MAX_SPARES))) {
+        return;
+      }
+      target = spareTarget.get();
+    }
+  }
+
+  // the seeded instances waiting for threads
+  int spareCount() {
+    return spares.size();
+  }
+
+  // whether this thread has an instance of its own, in threadlocal mode
+  boolean hasOwnInstance() {
+    SecureRandomSource source = perThread.get();
+    return source.own != null;
+  }
+
+  // spreads sequential thread IDs across stripes (the murmur3 finalizer)
+  private static int probe(long id) {
+    id ^= id >>> 33;
+    id *= 0xff51afd7ed558ccdL;
+    id ^= id >>> 33;
+    return (int) id;
+  }
+}
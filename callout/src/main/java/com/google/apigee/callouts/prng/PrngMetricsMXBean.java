@@ -0,0 +1,54 @@
+// PrngMetricsMXBean.java
+//
+// The JMX view of the metrics for one algorithm. Registered as
+// com.google.apigee.callouts.prng:type=PrngMetrics,algorithm=<algorithm>.
+// The maps are keyed by output type. Latencies are in nanoseconds, and
+// cover only the sampled requests; see the metrics-sampling property.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.util.Map;
+
+public interface PrngMetricsMXBean {
+  String getAlgorithm();
+
+  long getInstancesCreated();
+
+  long getReseeds();
+
+  long getSpareMisses();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  long getGetInstanceMeanNanos();
+
+  long getGetInstanceMaxNanos();
+
+  Map<String, Long> getDraws();
+
+  Map<String, Long> getErrors();
+
+  Map<String, Long> getLatencyP50Nanos();
+
+  Map<String, Long> getLatencyP99Nanos();
+
+  Map<String, Long> getLatencyMaxNanos();
+}
@@ -0,0 +1,55 @@
+// PrngProvider.java
+//
+// A security provider for the algorithms implemented here, currently
+// ChaCha20PRNG. It is not added to the JVM's list of providers; that
+// needs a permission a callout may not have, and would affect every
+// other user of SecureRandom. Instead, PrngCache consults it directly,
+// so the algorithm names it provides are accepted only by this callout.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.security.Provider;
+import java.util.Collections;
+
+final class PrngProvider extends Provider {
+  private static final long serialVersionUID = 1L;
+  static final PrngProvider INSTANCE = new PrngProvider();
+
+  // The (String, String, String) constructor, which replaces this one, is
+  // new in Java 9; this one is the only choice for the Java 8 build.
+  @SuppressWarnings("deprecation")
+  private PrngProvider() {
+    super("ApigeeCalloutPRNG", 1.0, "PRNG algorithms for the SecureRandom callout");
+    putService(
+        new Provider.Service(
+            this,
+            "SecureRandom",
+            ChaCha20Spi.ALGORITHM,
+            ChaCha20Spi.class.getName(),
+            null,
+            Collections.<String, String>emptyMap()) {
+          // the SPI is package-private, so it is created here, rather than
+          // by reflection
+          @Override
+          public Object newInstance(Object parameter) {
+            return new ChaCha20Spi();
+          }
+        });
+  }
+}
@@ -0,0 +1,721 @@
+// RandomService.java
+//
+// The generator behind SecureRandomCallout, for use in any Java service,
+// without Apigee. It takes the same properties as the callout, as a map;
+// for example
+//
+//   Map<String, String> properties = new HashMap<>();
+//   properties.put("output-type", "uuid");
+//   properties.put("ring-size", "256");
+//   RandomService service = new RandomService(properties);
+//   String id = service.take();
+//
+// Here, values must be literal; there are no context variables to refer
+// to. The constructor checks the properties, and throws for any that is
+// not valid, so that the methods that generate values need not.
+//
+// next() generates a value on the calling thread, and nextAsync() on an
+// executor. fill() fills an array of bytes, longs or UUIDs, from as few
+// draws as it can. take() is next(), but with ring-size set, it takes
+// values generated ahead of time by producer threads; see Pipeline. There
+// are producer-threads of them, two by default, or one on a single core,
+// and they run until close().
+//
+// For the callout, the same properties may refer to context variables,
+// and are resolved against them on each execution; the callout is an
+// adapter that reads and sets the context variables. The methods that
+// take Variables are for the callout, and get null from this class, for
+// which every setting is constant. Nothing here depends on Apigee.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.Setting;
+import com.google.apigee.callouts.UuidEx;
+import com.google.apigee.callouts.ValidationException;
+import com.google.apigee.callouts.Variables;
+import com.google.apigee.callouts.prng.RandomSource.SecureRandomSource;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public final class RandomService implements AutoCloseable {
+  private static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+  private static final int MIN_BUFFER_SIZE = 64;
+  private static final int MAX_BUFFER_SIZE = 65536;
+  private static final int MIN_RING_SIZE = 16;
+  private static final int MAX_RING_SIZE = 65536;
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+  // the most values that fill() draws the bytes for at once
+  private static final int MAX_FILL_CHUNK = 1024;
+  // Seeded values are predictable, so a seed, perhaps from the request,
+  // must never produce anything used as a secret or an identifier.
+  private static final Set<OutputType> UNSEEDED =
+      EnumSet.of(
+          OutputType.HEX,
+          OutputType.BASE64URL,
+          OutputType.ALPHANUMERIC,
+          OutputType.CUSTOM,
+          OutputType.UUID,
+          OutputType.UUIDV7,
+          OutputType.ULID);
+
+  // the errors for values out of range, made once
+  private static final ValidationException NEGATIVE_RESEED_INTERVAL =
+      new ValidationException("a reseed interval must not be negative");
+  private static final ValidationException NEGATIVE_METRICS_SAMPLING =
+      new ValidationException("metrics-sampling must not be negative");
+  private static final ValidationException BUFFER_SIZE_OUT_OF_RANGE =
+      new ValidationException(
+          String.format(
+              "buffer-size must be 0, or between %d and %d", MIN_BUFFER_SIZE, MAX_BUFFER_SIZE));
+  private static final ValidationException RING_SIZE_OUT_OF_RANGE =
+      new ValidationException(
+          String.format("ring-size must be 0, or between %d and %d", MIN_RING_SIZE, MAX_RING_SIZE));
+  private static final ValidationException PRODUCER_THREADS_OUT_OF_RANGE =
+      new ValidationException(
+          String.format("producer-threads must be between 1 and %d", Math.max(CORES, 2)));
+  private static final ValidationException RING_WITH_SEED =
+      new ValidationException("ring-size does not apply with a seed");
+  private static final ValidationException SEED_WITH_IDENTIFIERS =
+      new ValidationException("seed does not apply to tokens, uuids or ulids");
+  private static final ValidationException STDDEV_NOT_POSITIVE =
+      new ValidationException("stddev must be positive");
+  private static final ValidationException RATE_NOT_POSITIVE =
+      new ValidationException("rate must be positive");
+  private static final ValidationException NO_CHOICES =
+      new ValidationException("choices resolves to an empty string.");
+  private static final ValidationException NO_ALPHABET =
+      new ValidationException("alphabet resolves to an empty string.");
+  private static final ValidationException STRENGTH_NOT_LITERAL =
+      new ValidationException("strength must be a literal value");
+  private static final ValidationException PRELOAD_NOT_LITERAL =
+      new ValidationException("preload-algorithms must be a literal value");
+
+  // whether settings may refer to context variables, as in the callout
+  private final boolean templated;
+  // the first invalid setting, for the constructor to throw
+  private ValidationException invalid;
+
+  private final Set<String> allowedAlgorithms;
+  private final Setting<PrngCache> algorithm;
+  private final Setting<PrngCache.Mode> poolMode;
+  // why preloading failed, if it did, for each execution to report
+  private final ValidationException preloadFailure;
+  private final Setting<Long> reseedDraws;
+  private final Setting<Long> reseedMillis;
+  private final Setting<OutputType> outputType;
+  private final Setting<Integer> decimalDigits;
+  private final Setting<Boolean> ziggurat;
+  private final Setting<Double> mean;
+  private final Setting<Double> stddev;
+  private final Setting<Double> rate;
+  private final Setting<AliasTable> choices;
+  private final Setting<Integer> length;
+  private final Setting<TokenAlphabet> alphabet;
+  private final Setting<Range> range;
+  private final boolean checkRangeOnEachRequest;
+  private final Setting<Integer> bufferSize;
+  private final Setting<Long> bufferMaxAge;
+  private final Setting<UuidEx.Format> uuidFormat;
+  private final Setting<Integer> metricsSampling;
+  private final Setting<Long> seed;
+  private final Setting<Boolean> fast;
+  private final Setting<Long> seedOffset;
+  private final Pipeline pipeline;
+
+  public RandomService(Map<String, String> properties) throws ValidationException {
+    this(properties, false);
+    if (invalid != null) {
+      throw invalid;
+    }
+  }
+
+  // The properties are read here, and not kept; Apigee passes an untyped
+  // Map.
+  RandomService(Map properties, boolean templated) {
+    this.templated = templated;
+    // A literal or default algorithm is looked up once, here, so the request
+    // path needs no map lookup, and its instances are seeded in the
+    // background before the first request.
+    String algorithm = property(properties, "algorithm");
+    if (algorithm == null || algorithm.trim().isEmpty()) {
+      algorithm = DEFAULT_ALGORITHM;
+    }
+    // The allow-list is literal only; it limits what a request can select.
+    this.allowedAlgorithms = parseAllowedAlgorithms(property(properties, "allowed-algorithms"));
+    this.algorithm =
+        checked(
+            "algorithm",
+            Setting.compile(
+                algorithm, null, name -> PrngCache.forAlgorithm(name, allowedAlgorithms)));
+    // Preloading is done here, once, so it must be literal: a request must
+    // not choose which algorithms are warmed up.
+    Setting<Boolean> preload =
+        Setting.compile(
+            property(properties, "preload-algorithms"),
+            Boolean.TRUE,
+            algorithms -> preload(algorithms, allowedAlgorithms));
+    this.preloadFailure =
+        failure(
+            checked(
+                "preload-algorithms",
+                preload.isConstant() ? preload : Setting.failing(PRELOAD_NOT_LITERAL)));
+    this.poolMode =
+        compileProperty(
+            properties, "pool-mode", PrngCache.Mode.THREADLOCAL, PrngCache.Mode::parse);
+    this.reseedDraws =
+        compileProperty(
+            properties, "reseed-interval-draws", 0L, RandomService::parseReseedInterval);
+    this.reseedMillis =
+        compileProperty(properties, "reseed-interval-ms", 0L, RandomService::parseReseedInterval);
+    this.outputType = compileProperty(properties, "output-type", OutputType.INT, OutputType::parse);
+    this.decimalDigits =
+        compileProperty(properties, "decimal-digits", 12, FixedDecimal::parseDigits);
+    this.ziggurat =
+        compileProperty(properties, "gaussian-method", false, RandomService::parseGaussianMethod);
+    this.mean = compileProperty(properties, "mean", 0.0, s -> Numbers.parseDouble(s, "mean"));
+    this.stddev = compileProperty(properties, "stddev", 1.0, RandomService::parseStddev);
+    this.rate = compileProperty(properties, "rate", 1.0, RandomService::parseRate);
+    this.choices =
+        compileProperty(properties, "choices", null, Setting.caching(AliasTable::parse));
+    this.length = compileProperty(properties, "length", 32, TokenAlphabet::parseLength);
+    this.alphabet =
+        compileProperty(properties, "alphabet", null, Setting.caching(TokenAlphabet::parse));
+    Setting<Range> range = compileProperty(properties, "range", null, Range::parse);
+    this.checkRangeOnEachRequest = !(range.isConstant() && outputType.isConstant());
+    this.range = checkRangeOnEachRequest ? range : checkedRange(range, outputType);
+    this.bufferSize =
+        compileProperty(properties, "buffer-size", 0, RandomService::parseBufferSize);
+    this.bufferMaxAge =
+        compileProperty(
+            properties,
+            "buffer-max-age-ms",
+            60000L,
+            s -> Numbers.parseLong(s, "buffer-max-age-ms"));
+    this.uuidFormat =
+        compileProperty(
+            properties, "uuid-format", UuidEx.Format.STANDARD, UuidEx.Format::parse);
+    this.metricsSampling =
+        compileProperty(properties, "metrics-sampling", 0, RandomService::parseMetricsSampling);
+    this.seed = compileProperty(properties, "seed", null, SeededSource::parseSeed);
+    // The fast generator must be chosen by the policy itself, so strength
+    // may not refer to variables.
+    Setting<Boolean> fast =
+        Setting.compile(property(properties, "strength"), false, RandomService::parseStrength);
+    this.fast =
+        checked("strength", fast.isConstant() ? fast : Setting.failing(STRENGTH_NOT_LITERAL));
+    this.seedOffset =
+        compileProperty(
+            properties, "seed-offset", 0L, s -> Numbers.parseLong(s, "seed-offset"));
+    // Values generated ahead of time are for this class; the callout
+    // generates on each execution.
+    Integer ringSize =
+        templated
+            ? null
+            : constant(compileProperty(properties, "ring-size", 0, RandomService::parseRingSize));
+    Integer producerThreads =
+        templated
+            ? null
+            : constant(
+                compileProperty(
+                    properties,
+                    "producer-threads",
+                    Math.min(CORES, 2),
+                    RandomService::parseProducerThreads));
+    if (ringSize != null && ringSize > 0 && constant(seed) != null) {
+      invalid(RING_WITH_SEED);
+    }
+    if (!templated && constant(seed) != null && UNSEEDED.contains(constant(outputType))) {
+      invalid(SEED_WITH_IDENTIFIERS);
+    }
+    if (!templated && invalid == null) {
+      checkOutputType();
+    }
+    this.pipeline =
+        (ringSize != null && ringSize > 0 && invalid == null)
+            ? Pipeline.start(ringSize, producerThreads, this::produce)
+            : null;
+  }
+
+  private <T> Setting<T> compileProperty(
+      Map properties, String propName, T defaultValue, Setting.Parser<T> parser) {
+    return checked(propName, Setting.compile(property(properties, propName), defaultValue, parser));
+  }
+
+  private static String property(Map properties, String propName) {
+    Object value = properties.get(propName);
+    return (value instanceof String) ? (String) value : null;
+  }
+
+  // What the output type needs from the other settings, which are all
+  // constant and valid here: choices, an alphabet, and a range that suits it.
+  private void checkOutputType() {
+    OutputType type = constant(outputType);
+    if (type == OutputType.CHOICE && constant(choices) == null) {
+      invalid(NO_CHOICES);
+    } else if (type == OutputType.CUSTOM && constant(alphabet) == null) {
+      invalid(NO_ALPHABET);
+    } else {
+      ValidationException e = failure(range);
+      if (e != null) {
+        invalid(e);
+      }
+    }
+  }
+
+  // the error from a constant setting, or null if it has none
+  private static ValidationException failure(Setting<?> setting) {
+    try {
+      setting.get(null);
+      return null;
+    } catch (ValidationException e) {
+      return e;
+    } catch (Exception e) {
+      return new ValidationException(e.toString());
+    }
+  }
+
+  // Without a context to resolve against, every setting must be constant,
+  // and valid.
+  private <T> Setting<T> checked(String propName, Setting<T> setting) {
+    if (templated || invalid != null) {
+      return setting;
+    }
+    if (!setting.isConstant()) {
+      invalid(new ValidationException(propName + " must be a literal value"));
+      return setting;
+    }
+    try {
+      setting.get(null);
+    } catch (ValidationException e) {
+      invalid(e);
+    } catch (Exception e) {
+      invalid(new ValidationException(e.toString()));
+    }
+    return setting;
+  }
+
+  private void invalid(ValidationException e) {
+    if (invalid == null) {
+      invalid = e;
+    }
+  }
+
+  // the value of a constant setting, or null if it is not valid
+  private static <T> T constant(Setting<T> setting) {
+    try {
+      return setting.get(null);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Set<String> parseAllowedAlgorithms(String spec) {
+    if (spec == null || spec.trim().isEmpty()) return null;
+    Set<String> allowed = new HashSet<String>();
+    for (String name : spec.split(",")) {
+      name = name.trim();
+      if (!name.isEmpty()) allowed.add(name);
+    }
+    return allowed;
+  }
+
+  // Creating the PrngCache for an algorithm starts seeding its instances in
+  // the background, ahead of the first request.
+  // Only allowed algorithms may be preloaded.
+  private static Boolean preload(String algorithms, Set<String> allowed) throws Exception {
+    PrngCache.preload(algorithms, allowed);
+    return Boolean.TRUE;
+  }
+
+  private static Long parseReseedInterval(String s) throws ValidationException {
+    long interval = Numbers.parseLong(s, "reseed interval");
+    if (interval < 0) throw NEGATIVE_RESEED_INTERVAL;
+    return interval;
+  }
+
+  private static Integer parseMetricsSampling(String s) throws ValidationException {
+    int every = Numbers.parseInt(s, "metrics-sampling");
+    if (every < 0) throw NEGATIVE_METRICS_SAMPLING;
+    return every;
+  }
+
+  private static Integer parseBufferSize(String s) throws ValidationException {
+    int size = Numbers.parseInt(s, "buffer-size");
+    if (size != 0 && (size < MIN_BUFFER_SIZE || size > MAX_BUFFER_SIZE))
+      throw BUFFER_SIZE_OUT_OF_RANGE;
+    return size;
+  }
+
+  private static Integer parseRingSize(String s) throws ValidationException {
+    int size = Numbers.parseInt(s, "ring-size");
+    if (size != 0 && (size < MIN_RING_SIZE || size > MAX_RING_SIZE)) throw RING_SIZE_OUT_OF_RANGE;
+    return size;
+  }
+
+  // More producers than cores would only compete with the consumers.
+  private static Integer parseProducerThreads(String s) throws ValidationException {
+    int threads = Numbers.parseInt(s, "producer-threads");
+    if (threads < 1 || threads > Math.max(CORES, 2)) throw PRODUCER_THREADS_OUT_OF_RANGE;
+    return threads;
+  }
+
+  // With a literal range and output-type, check once that the range suits
+  // the type, rather than on each request.
+  private static Setting<Range> checkedRange(Setting<Range> range, Setting<OutputType> outputType) {
+    try {
+      Range r = range.get(null);
+      if (r != null) {
+        r.checkFits(outputType.get(null));
+      }
+      return range;
+    } catch (Exception e) {
+      return Setting.failing(e);
+    }
+  }
+
+  private static Boolean parseGaussianMethod(String s) throws ValidationException {
+    switch (s) {
+      case "polar":
+        return false;
+      case "ziggurat":
+        return true;
+      default:
+        throw new ValidationException("invalid gaussian-method: " + s);
+    }
+  }
+
+  private static Double parseStddev(String s) throws ValidationException {
+    double stddev = Numbers.parseDouble(s, "stddev");
+    if (!(stddev > 0) || Double.isInfinite(stddev)) throw STDDEV_NOT_POSITIVE;
+    return stddev;
+  }
+
+  private static Double parseRate(String s) throws ValidationException {
+    double rate = Numbers.parseDouble(s, "rate");
+    if (!(rate > 0) || Double.isInfinite(rate)) throw RATE_NOT_POSITIVE;
+    return rate;
+  }
+
+  private static Boolean parseStrength(String s) throws ValidationException {
+    switch (s) {
+      case "secure":
+        return false;
+      case "fast":
+        return true;
+      default:
+        throw new ValidationException("invalid strength: " + s);
+    }
+  }
+
+  // The PrngCache for the algorithm, or null, with a seed, for which the
+  // values come from SeededSource.
+  PrngCache cache(Variables vars) throws Exception {
+    if (preloadFailure != null) {
+      throw preloadFailure;
+    }
+    if (seed.get(vars) != null) {
+      if (UNSEEDED.contains(outputType.get(vars))) {
+        throw SEED_WITH_IDENTIFIERS;
+      }
+      return null;
+    }
+    PrngCache cache = algorithm.get(vars);
+    if (cache == null) {
+      // a templated algorithm that resolved to nothing
+      cache = PrngCache.forAlgorithm(DEFAULT_ALGORITHM, allowedAlgorithms);
+    }
+    return cache;
+  }
+
+  String algorithmName(PrngCache cache, Variables vars) throws Exception {
+    if (cache == null) return SeededSource.ALGORITHM;
+    return fast.get(vars) ? FastSource.ALGORITHM : cache.algorithm;
+  }
+
+  OutputType outputType(Variables vars) throws Exception {
+    return outputType.get(vars);
+  }
+
+  // whether the draws count in the metrics, which are for the SecureRandom
+  // algorithms
+  boolean measured(PrngCache cache, Variables vars) throws Exception {
+    return cache != null && !fast.get(vars);
+  }
+
+  boolean sampled(Variables vars) throws Exception {
+    return Metrics.sample(metricsSampling.get(vars));
+  }
+
+  // The source for one execution, which draws the given number of values.
+  // The caller releases it when done, which returns it to its pool, if it
+  // was borrowed.
+  RandomSource acquire(PrngCache cache, long values, Variables vars) throws Exception {
+    if (cache == null) {
+      // seeded: the values depend only on the seed and offset
+      return SeededSource.get(seed.get(vars), seedOffset.get(vars));
+    }
+    if (fast.get(vars)) {
+      return FastSource.get(cache, poolMode.get(vars));
+    }
+    SecureRandomSource prng =
+        cache.source(
+            poolMode.get(vars),
+            reseedDraws.get(vars),
+            TimeUnit.MILLISECONDS.toNanos(reseedMillis.get(vars)),
+            values);
+    int bufferSize = this.bufferSize.get(vars);
+    return (bufferSize > 0) ? prng.buffered(bufferSize, bufferMaxAge.get(vars)) : prng;
+  }
+
+  String generate(OutputType outputType, RandomSource source, Variables vars)
+      throws Exception {
+    switch (outputType) {
+      case INT:
+        Range range = this.range.get(vars);
+        if (range == null) {
+          return Integer.toString(source.nextInt());
+        }
+        if (checkRangeOnEachRequest) {
+          range.checkFits(outputType);
+        }
+        return Integer.toString((int) source.nextLong(range.min, range.max));
+      case LONG:
+        range = this.range.get(vars);
+        return Long.toString(
+            (range != null) ? source.nextLong(range.min, range.max) : source.nextLong());
+      case GAUSSIAN:
+        double g = ziggurat.get(vars) ? Ziggurat.nextGaussian(source) : source.nextGaussian();
+        double v = mean.get(vars) + stddev.get(vars) * g;
+        return FixedDecimal.format(v, decimalDigits.get(vars));
+      case DOUBLE:
+        return FixedDecimal.formatTruncated(source.nextDouble(), decimalDigits.get(vars));
+      case EXPONENTIAL:
+        double e = -Math.log(1.0 - source.nextDouble()) / rate.get(vars);
+        return FixedDecimal.format(e, decimalDigits.get(vars));
+      case CHOICE:
+        AliasTable table = choices.get(vars);
+        if (table == null) {
+          throw NO_CHOICES;
+        }
+        return table.next(source);
+      case HEX:
+      case BASE64URL:
+      case ALPHANUMERIC:
+      case CUSTOM:
+        return tokenAlphabet(outputType, vars).next(source, length.get(vars));
+      case UUID:
+        byte[] bytes = source.scratch(16);
+        source.nextBytes(bytes, 0, 16);
+        return UuidEx.fromRandomBytes(bytes, 0).toString(uuidFormat.get(vars));
+      case UUIDV7:
+        return TimeOrderedIds.uuidV7(source).toString(uuidFormat.get(vars));
+      case ULID:
+        return TimeOrderedIds.ulid(source);
+      default:
+        throw new IllegalStateException(outputType.toString());
+    }
+  }
+
+  private TokenAlphabet tokenAlphabet(OutputType outputType, Variables vars)
+      throws Exception {
+    switch (outputType) {
+      case HEX:
+        return TokenAlphabet.HEX;
+      case BASE64URL:
+        return TokenAlphabet.BASE64URL;
+      case ALPHANUMERIC:
+        return TokenAlphabet.ALPHANUMERIC;
+      default:
+        TokenAlphabet alphabet = this.alphabet.get(vars);
+        if (alphabet == null) {
+          throw NO_ALPHABET;
+        }
+        return alphabet;
+    }
+  }
+
+  // A source over the bytes for count values, drawn in a single call.
+  RandomSource prefetch(
+      OutputType outputType, RandomSource source, int count, Variables vars)
+      throws Exception {
+    int bytesPerValue = outputType.bytesPerValue;
+    if (bytesPerValue == 0) {
+      bytesPerValue = tokenAlphabet(outputType, vars).bytesFor(length.get(vars));
+    }
+    return source.prefetch(count * bytesPerValue);
+  }
+
+  private interface Draw<T> {
+    T run(OutputType outputType, RandomSource source) throws Exception;
+  }
+
+  // One use of a source, as one execution of the callout, drawing the given
+  // number of values, which count towards the reseed interval. Only values
+  // of the output type count towards the metrics. The settings were all
+  // checked by the constructor, so a failure here is not expected; it is
+  // thrown unchecked.
+  private <T> T draw(int values, boolean ofOutputType, Draw<T> draw) {
+    PrngCache cache = null;
+    OutputType outputType = null;
+    try {
+      cache = cache(null);
+      outputType = outputType(null);
+      boolean measured = ofOutputType && measured(cache, null);
+      boolean timed = measured && sampled(null);
+      long start = timed ? System.nanoTime() : 0L;
+      RandomSource source = acquire(cache, values, null);
+      try {
+        T result = draw.run(outputType, source);
+        if (measured) {
+          cache.metrics.recordDraws(outputType, values);
+          if (timed) {
+            cache.metrics.recordLatency(outputType, System.nanoTime() - start);
+          }
+        }
+        return result;
+      } finally {
+        source.release();
+      }
+    } catch (Exception e) {
+      if (cache != null && outputType != null && ofOutputType) {
+        cache.metrics.recordError(outputType);
+      }
+      if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      }
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Runs on a producer thread.
+  private void produce(SpscRing<String> ring, int n) {
+    draw(
+        n,
+        true,
+        (type, source) -> {
+          RandomSource prefetched = prefetch(type, source, n, null);
+          for (int i = 0; i < n; i++) {
+            ring.offer(generate(type, prefetched, null));
+          }
+          return null;
+        });
+  }
+
+  // A value of the configured output-type, generated on this thread. With
+  // a seed, each call gives the value at seed-offset.
+  public String next() {
+    return draw(1, true, (type, source) -> generate(type, source, null));
+  }
+
+  // As next(), but with ring-size set, the value is one generated ahead of
+  // time, if there is one ready.
+  public String take() {
+    if (pipeline != null) {
+      String value = pipeline.take();
+      if (value != null) {
+        return value;
+      }
+    }
+    return next();
+  }
+
+  // A value taken from this thread's ring, if one is ready, or else
+  // generated on the executor.
+  public CompletableFuture<String> nextAsync(Executor executor) {
+    if (pipeline != null) {
+      String value = pipeline.take();
+      if (value != null) {
+        return CompletableFuture.completedFuture(value);
+      }
+    }
+    return CompletableFuture.supplyAsync(this::next, executor);
+  }
+
+  public CompletableFuture<String> nextAsync() {
+    return nextAsync(ForkJoinPool.commonPool());
+  }
+
+  // Fills the array with random bytes, from the configured generator. For
+  // the reseed interval, each 8 bytes count as a value.
+  public void fill(byte[] bytes) {
+    draw(
+        (bytes.length + 7) / 8,
+        false,
+        (type, source) -> {
+          source.nextBytes(bytes, 0, bytes.length);
+          return null;
+        });
+  }
+
+  // Fills the array with random longs, within range, if one is set.
+  public void fill(long[] values) {
+    draw(
+        values.length,
+        false,
+        (type, source) -> {
+          Range range = this.range.get(null);
+          RandomSource prefetched = source.prefetch(Math.min(values.length, MAX_FILL_CHUNK) * 8);
+          for (int i = 0; i < values.length; i++) {
+            values[i] =
+                (range != null) ? prefetched.nextLong(range.min, range.max) : prefetched.nextLong();
+          }
+          return null;
+        });
+  }
+
+  // Fills the array with random (version 4) UUIDs.
+  public void fill(UUID[] uuids) {
+    draw(
+        uuids.length,
+        false,
+        (type, source) -> {
+          RandomSource prefetched = source.prefetch(Math.min(uuids.length, MAX_FILL_CHUNK) * 16);
+          byte[] bytes = new byte[16];
+          for (int i = 0; i < uuids.length; i++) {
+            prefetched.nextBytes(bytes, 0, 16);
+            uuids[i] = UuidEx.fromRandomBytes(bytes, 0).toUUID();
+          }
+          return null;
+        });
+  }
+
+  // Stops the producer threads, if any, waiting a little for them, and
+  // discards the values in the rings. Values are still available, from
+  // take() as from next(), generated on the calling thread.
+  public void close() {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  // Removes the metrics MXBeans, if they were registered, so that they no
+  // longer hold this copy of the classes. For a container that unloads
+  // them; the generators themselves are shared, and keep working.
+  public static void unregisterMetrics() {
+    PrngCache.unregisterMetrics();
+  }
+}
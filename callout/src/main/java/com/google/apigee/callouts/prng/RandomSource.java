@@ -0,0 +1,291 @@
+// RandomSource.java
+//
+// A source of random bits for the SecureRandomCallout. The output
+// types draw from a RandomSource rather than directly from a
+// SecureRandom, so that values can be carved from bytes obtained in
+// a single nextBytes() call.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.security.SecureRandom;
+
+abstract class RandomSource {
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+  private static final int MAX_SCRATCH = 64;
+  private double nextNextGaussian;
+  private boolean haveNextNextGaussian;
+  private byte[][] scratch;
+  private char[] chars;
+
+  abstract void nextBytes(byte[] bytes, int offset, int length);
+
+  abstract int nextInt();
+
+  abstract long nextLong();
+
+  // Uniform in [min, max], inclusive, over any span up to the full range of
+  // long. This is Lemire's multiply-shift method: the high half of the
+  // product of a random word and the span is the result, and the low half
+  // detects the few words that must be rejected to avoid bias. The modulo
+  // that computes the rejection threshold runs only when a rejection is
+  // possible, which for small spans is rare. A span that fits in 32 bits
+  // consumes 32 random bits per attempt.
+  //
+  // See Lemire, "Fast Random Integer Generation in an Interval", 2019.
+  long nextLong(long min, long max) {
+    long span = max - min + 1; // unsigned; 0 means 2^64
+    if (span == 0) {
+      return nextLong();
+    }
+    if ((span >>> 32) == 0) {
+      long m = (nextInt() & 0xffffffffL) * span;
+      long low = m & 0xffffffffL;
+      if (low < span) {
+        long threshold = (0x100000000L - span) % span;
+        while (low < threshold) {
+          m = (nextInt() & 0xffffffffL) * span;
+          low = m & 0xffffffffL;
+        }
+      }
+      return min + (m >>> 32);
+    }
+    long x = nextLong();
+    long low = x * span;
+    if (Long.compareUnsigned(low, span) < 0) {
+      long threshold = Long.remainderUnsigned(-span, span);
+      while (Long.compareUnsigned(low, threshold) < 0) {
+        x = nextLong();
+        low = x * span;
+      }
+    }
+    return min + unsignedMultiplyHigh(x, span);
+  }
+
+  // the high 64 bits of the unsigned 128-bit product; Math.multiplyHigh
+  // is not available in Java 8
+  static long unsignedMultiplyHigh(long x, long y) {
+    long x0 = x & 0xffffffffL;
+    long x1 = x >>> 32;
+    long y0 = y & 0xffffffffL;
+    long y1 = y >>> 32;
+    long p01 = x0 * y1;
+    long p10 = x1 * y0;
+    long middle = ((x0 * y0) >>> 32) + (p01 & 0xffffffffL) + (p10 & 0xffffffffL);
+    return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+  }
+
+  // uniform in [0, 1)
+  double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  // the polar method, as java.util.Random.nextGaussian()
+  double nextGaussian() {
+    if (haveNextNextGaussian) {
+      haveNextNextGaussian = false;
+      return nextNextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextNextGaussian = v2 * multiplier;
+    haveNextNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  // for a source that is repositioned, so that values depend only on the
+  // position
+  void discardSpareGaussian() {
+    haveNextNextGaussian = false;
+  }
+
+  // A reusable array of exactly the given length, valid until the next call
+  // for the same length. An exact length lets a SecureRandom fill it in
+  // place. Sources are confined to one thread, so this needs no
+  // synchronization.
+  byte[] scratch(int length) {
+    if (length > MAX_SCRATCH) {
+      return new byte[length];
+    }
+    if (scratch == null) {
+      scratch = new byte[MAX_SCRATCH + 1][];
+    }
+    byte[] bytes = scratch[length];
+    if (bytes == null) {
+      bytes = scratch[length] = new byte[length];
+    }
+    return bytes;
+  }
+
+  // A reusable char array of at least the given length.
+  char[] chars(int length) {
+    if (chars == null || chars.length < length) {
+      chars = new char[Math.max(length, 64)];
+    }
+    return chars;
+  }
+
+  // Returns a borrowed source to its pool, after its last use in an
+  // execution. Other sources belong to their threads, and stay.
+  void release() {}
+
+  // A source over bytes drawn from this one in a single call. It draws
+  // again, in a single call, if the bytes are used up.
+  RandomSource prefetch(int length) {
+    byte[] bytes = new byte[length];
+    nextBytes(bytes, 0, length);
+    return new ByteArraySource(bytes, this);
+  }
+
+  static class SecureRandomSource extends RandomSource {
+    // the instance in use, bound by PrngCache on each use
+    SecureRandom prng;
+    // this thread's own instance, for pool-mode threadlocal
+    PrngCache.Generator own;
+    // whether this thread was counted as waiting for its own instance
+    boolean waiting;
+    // the pool to return to, for a source lent to a virtual thread
+    SourcePool<SecureRandomSource> pool;
+    private BufferedSource buffered;
+
+    SecureRandomSource(SecureRandom prng) {
+      this.prng = prng;
+    }
+
+    void nextBytes(byte[] bytes, int offset, int length) {
+      if (offset == 0 && length == bytes.length) {
+        prng.nextBytes(bytes);
+      } else {
+        byte[] b = new byte[length];
+        prng.nextBytes(b);
+        System.arraycopy(b, 0, bytes, offset, length);
+      }
+    }
+
+    int nextInt() {
+      return prng.nextInt();
+    }
+
+    long nextLong() {
+      return prng.nextLong();
+    }
+
+    void release() {
+      if (pool != null) {
+        pool.release(this);
+      }
+    }
+
+    // The buffer belongs to this source, and so is confined to the thread
+    // that owns the source. It is replaced if the configured size changes.
+    BufferedSource buffered(int size, long maxAgeMillis) {
+      if (buffered == null || buffered.bytes.length != size) {
+        buffered = new BufferedSource(this, size);
+      }
+      buffered.expireIfOlderThan(maxAgeMillis);
+      return buffered;
+    }
+  }
+
+  static class ByteArraySource extends RandomSource {
+    final byte[] bytes;
+    final RandomSource parent;
+    int position;
+
+    ByteArraySource(byte[] bytes, RandomSource parent) {
+      this.bytes = bytes;
+      this.parent = parent;
+    }
+
+    void refill() {
+      parent.nextBytes(bytes, 0, bytes.length);
+      position = 0;
+    }
+
+    private int take(int n) {
+      if (position + n > bytes.length) {
+        refill();
+      }
+      int p = position;
+      position += n;
+      return p;
+    }
+
+    void nextBytes(byte[] dest, int offset, int length) {
+      while (length > 0) {
+        int n = Math.min(length, bytes.length);
+        int p = take(n);
+        System.arraycopy(bytes, p, dest, offset, n);
+        offset += n;
+        length -= n;
+      }
+    }
+
+    int nextInt() {
+      int p = take(4);
+      return ((bytes[p] & 0xff) << 24)
+          | ((bytes[p + 1] & 0xff) << 16)
+          | ((bytes[p + 2] & 0xff) << 8)
+          | (bytes[p + 3] & 0xff);
+    }
+
+    long nextLong() {
+      return ((long) nextInt() << 32) | (nextInt() & 0xffffffffL);
+    }
+  }
+
+  // A reusable buffer, filled from the PRNG in one nextBytes() call. Each
+  // byte is handed out at most once. Bytes that have waited longer than the
+  // maximum age are discarded rather than used.
+  static class BufferedSource extends ByteArraySource {
+    private long filledAt;
+
+    BufferedSource(RandomSource parent, int size) {
+      super(new byte[size], parent);
+      this.position = size; // empty; fill on first use
+    }
+
+    void refill() {
+      super.refill();
+      filledAt = System.nanoTime();
+    }
+
+    // the buffer goes with its source
+    void release() {
+      parent.release();
+    }
+
+    void expireIfOlderThan(long maxAgeMillis) {
+      if (maxAgeMillis > 0
+          && position < bytes.length
+          && System.nanoTime() - filledAt > maxAgeMillis * 1000000L) {
+        position = bytes.length;
+      }
+    }
+
+    RandomSource prefetch(int length) {
+      // the buffer is already the result of a single draw
+      return this;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+// Range.java
+//
+// An inclusive min,max range for the integer output types.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.ValidationException;
+
+final class Range {
+  private static final ValidationException INVALID =
+      new ValidationException("range specifier is invalid");
+  private static final ValidationException NOT_ORDERED =
+      new ValidationException("max is not greater than min");
+  private static final ValidationException OUT_OF_BOUNDS_FOR_INT =
+      new ValidationException("range is out of bounds for output-type int");
+
+  final long min, max;
+
+  private Range(long min, long max) {
+    this.min = min;
+    this.max = max;
+  }
+
+  static Range parse(String specifier) throws ValidationException {
+    int comma = specifier.indexOf(',');
+    if (comma < 0 || specifier.indexOf(',', comma + 1) >= 0) throw INVALID;
+    long min = parseLong(specifier, 0, comma);
+    long max = parseLong(specifier, comma + 1, specifier.length());
+    if (min >= max) throw NOT_ORDERED;
+    return new Range(min, max);
+  }
+
+  void checkFits(OutputType outputType) throws ValidationException {
+    if (outputType == OutputType.INT && (min < Integer.MIN_VALUE || max > Integer.MAX_VALUE))
+      throw OUT_OF_BOUNDS_FOR_INT;
+  }
+
+  // Long.MIN_VALUE also signals an error; it can be a min, but never a max.
+  private static long parseLong(String s, int begin, int end) throws ValidationException {
+    long value = Numbers.parseLong(s, begin, end, Long.MIN_VALUE);
+    if (value == Long.MIN_VALUE && (begin != 0 || !isLongMinValue(s, end))) throw INVALID;
+    return value;
+  }
+
+  private static boolean isLongMinValue(String s, int end) {
+    return s.substring(0, end).trim().equals(Long.toString(Long.MIN_VALUE));
+  }
+}
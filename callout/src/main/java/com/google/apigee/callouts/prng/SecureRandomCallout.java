@@ -2,7 +2,8 @@
 //
 // This is the source code for a Java callout for Apigee Edge.
 // This callout is very simple - it invokes java.security.SecureRandom()
-// inserts the result into a context variable.
+// inserts the result into a context variable. The generating is done by
+// RandomService; this class reads and sets the context variables.
 //
 // Copyright 2017-2022 Google LLC.
 //
@@ -27,132 +28,160 @@ import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.MessageContext;
 import com.google.apigee.callouts.CalloutBase;
-import com.google.apigee.callouts.UuidEx;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.LinkedHashMap;
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.Setting;
+import com.google.apigee.callouts.ValidationException;
+import com.google.apigee.callouts.Variables;
 import java.util.Map;
 
 public class SecureRandomCallout extends CalloutBase implements Execution {
   private static final String varprefix = "prng_";
+  private static final String DEFAULT_OUTPUT_VAR = varprefix + "random";
 
-  // It is expensive to initialize a SecureRandom. Though instances of
-  // SecureRandom are thread safe, once initialized, there may be contention
-  // at high concurrency. Therefore this implementation uses a ThreadLocal
-  // SecureRandom. Each thread can have a map of 10 of these.
+  private static final int MAX_COUNT = 1000;
 
-  private static ThreadLocal<Map<String, SecureRandom>> prngMap =
-      ThreadLocal.withInitial(
-          () ->
-              (new LinkedHashMap<String, SecureRandom>() {
-                protected boolean removeEldestEntry(Map.Entry<String, SecureRandom> eldest) {
-                  return size() > 10;
-                }
-              }));
+  // the errors for values out of range, made once
+  private static final ValidationException COUNT_OUT_OF_RANGE =
+      new ValidationException(String.format("count must be between 1 and %d", MAX_COUNT));
+
+  private final boolean debug;
+  private final RandomService service;
+  private final Setting<Integer> count;
+  private final Setting<Boolean> jsonBatch;
+  private final Setting<String> delimiter;
+  private final Setting<Boolean> emitMetrics;
+  private final Setting<Boolean> emitMetadata;
 
   public SecureRandomCallout(Map properties) {
     super(properties);
+    // Compile the configuration once; execute() then does no regex work
+    // and no parsing of literal property values.
+    this.debug = getDebug();
+    this.service = new RandomService(properties, true);
+    this.count = compileProperty(properties, "count", 1, SecureRandomCallout::parseCount);
+    this.jsonBatch =
+        compileProperty(properties, "batch-format", false, SecureRandomCallout::parseBatchFormat);
+    this.delimiter = compileProperty(properties, "delimiter", ",", s -> s);
+    this.emitMetrics = compileProperty(properties, "emit-metrics", false, Boolean::parseBoolean);
+    this.emitMetadata = compileProperty(properties, "emit-metadata", true, Boolean::parseBoolean);
   }
 
-  public String getVarnamePrefix() {
-    return varprefix;
+  private static Integer parseCount(String s) throws ValidationException {
+    int count = Numbers.parseInt(s, "count");
+    if (count < 1 || count > MAX_COUNT) throw COUNT_OUT_OF_RANGE;
+    return count;
   }
 
-  private String getAlgorithm(MessageContext msgCtxt) throws Exception {
-    String alg = getSimpleOptionalProperty("algorithm", msgCtxt);
-    if (alg == null) {
-      return "SHA1PRNG";
+  private static Boolean parseBatchFormat(String s) throws ValidationException {
+    switch (s) {
+      case "delimited":
+        return false;
+      case "json":
+        return true;
+      default:
+        throw new ValidationException("invalid batch-format: " + s);
     }
-    return alg;
   }
 
-  private String getOutputType(MessageContext msgCtxt) throws Exception {
-    String type = getSimpleOptionalProperty("output-type", msgCtxt);
-    if (type == null) {
-      return "int";
-    }
-    return type;
+  public String getVarnamePrefix() {
+    return varprefix;
   }
 
-  private String getDecimalDigits(MessageContext msgCtxt) throws Exception {
-    String digits = getSimpleOptionalProperty("decimal-digits", msgCtxt);
-    if (digits == null) {
-      return "12";
+  // Generates count values from a single draw on the PRNG. Each value is set
+  // into an indexed variable, prng_random_1 .. prng_random_N, and all of them
+  // into prng_random, either delimited or as a JSON array.
+  private void generateBatch(
+      OutputType outputType,
+      RandomSource source,
+      int count,
+      String outputVar,
+      MessageContext msgCtxt,
+      Variables vars)
+      throws Exception {
+    RandomSource prefetched = service.prefetch(outputType, source, count, vars);
+    boolean json = jsonBatch.get(vars);
+    boolean quote = json && outputType.quoted;
+    String delimiter = json ? "," : this.delimiter.get(vars);
+    StringBuilder sb = new StringBuilder(count * 40);
+    String itemPrefix = outputVar + "_";
+    if (json) sb.append('[');
+    for (int i = 1; i <= count; i++) {
+      String value = service.generate(outputType, prefetched, vars);
+      msgCtxt.setVariable(itemPrefix + i, value);
+      if (i > 1) sb.append(delimiter);
+      if (quote) sb.append('"').append(value).append('"');
+      else sb.append(value);
     }
-    return digits;
+    if (json) sb.append(']');
+    msgCtxt.setVariable(outputVar, sb.toString());
   }
 
-    static class Range {
-            public Range(String specifier){
-                String[] parts = specifier.trim().split("\\s*,\\s*");
-                if (parts.length!=2)
-                    throw new RuntimeException("range specifier is invalid");
-
-                int min = Integer.parseInt(parts[0]);
-                int max = Integer.parseInt(parts[1]);
-            if (min >= max) throw new RuntimeException("max is not greater than min");
-            this.min = min;
-            this.max = max;
-        }
-        public int min, max;
-    }
-
-  private Range getRange(MessageContext msgCtxt) throws Exception {
-    String rangeSpecifier = getSimpleOptionalProperty("range", msgCtxt);
-    if (rangeSpecifier == null) {
-      return null;
-    }
-    return new Range(rangeSpecifier);
+  private void setMetricsVariables(Metrics metrics, OutputType outputType, MessageContext msgCtxt) {
+    Histogram latency = metrics.latency(outputType);
+    msgCtxt.setVariable(varName("metrics_draws"), Long.toString(metrics.draws(outputType)));
+    msgCtxt.setVariable(varName("metrics_errors"), Long.toString(metrics.errors(outputType)));
+    msgCtxt.setVariable(varName("metrics_latency_p50_ns"), Long.toString(latency.valueAt(0.5)));
+    msgCtxt.setVariable(varName("metrics_latency_p99_ns"), Long.toString(latency.valueAt(0.99)));
+    msgCtxt.setVariable(
+        varName("metrics_instances"), Long.toString(metrics.getInstancesCreated()));
+    msgCtxt.setVariable(varName("metrics_reseeds"), Long.toString(metrics.getReseeds()));
   }
 
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
-    boolean debug = false;
+    PrngCache cache = null;
+    OutputType outputType = null;
+    String outputVar = DEFAULT_OUTPUT_VAR;
+    // released when done, in case it was borrowed, for a virtual thread
+    RandomSource source = null;
+    // the settings read the context variables through this
+    Variables vars = msgCtxt::getVariable;
     try {
-      msgCtxt.removeVariable(varName("random"));
-      debug = getDebug();
-      String algorithm = getAlgorithm(msgCtxt);
-      msgCtxt.setVariable(varName("algorithm"), algorithm);
-      Map<String, SecureRandom> map = prngMap.get();
-
-      SecureRandom prng =
-          map.computeIfAbsent(
-              algorithm,
-              k -> {
-                try {
-                  return SecureRandom.getInstance(k);
-                } catch (NoSuchAlgorithmException e1) {
-                  throw new RuntimeException(e1);
-                }
-              });
-
-      String outputType = getOutputType(msgCtxt);
-      msgCtxt.setVariable(varName("output_type"), outputType);
-      switch (outputType) {
-        case "int":
-          Range range = getRange(msgCtxt);
-          int value = (range!=null) ? prng.nextInt(range.max + 1 - range.min) + range.min : prng.nextInt();
-          msgCtxt.setVariable(varName("random"), new Integer(value).toString());
-          break;
-        case "gaussian":
-          double v = prng.nextGaussian();
-          String decimalDigits = getDecimalDigits(msgCtxt);
-          String format = "%." + decimalDigits + "f";
-          msgCtxt.setVariable(varName("random"), String.format(format, v));
-          break;
-        case "uuid":
-          UuidEx uuid = UuidEx.randomUUID(prng);
-          msgCtxt.setVariable(varName("random"), uuid.toString());
-          break;
-        default:
-          throw new Exception(String.format("invalid output-type: %s", outputType));
+      outputVar = getOutputVar(msgCtxt, DEFAULT_OUTPUT_VAR);
+      boolean emitMetadata = this.emitMetadata.get(vars);
+      cache = service.cache(vars);
+      if (emitMetadata) {
+        msgCtxt.setVariable(varName("algorithm"), service.algorithmName(cache, vars));
+      }
+      outputType = service.outputType(vars);
+      boolean measured = service.measured(cache, vars);
+      boolean timed = measured && service.sampled(vars);
+      long start = timed ? System.nanoTime() : 0L;
+      int count = this.count.get(vars);
+      source = service.acquire(cache, count, vars);
+      if (emitMetadata) {
+        msgCtxt.setVariable(varName("output_type"), outputType.toString());
+      }
+      if (count == 1) {
+        msgCtxt.setVariable(outputVar, service.generate(outputType, source, vars));
+      } else {
+        generateBatch(outputType, source, count, outputVar, msgCtxt, vars);
+      }
+      if (measured) {
+        cache.metrics.recordDraws(outputType, count);
+        if (timed) {
+          cache.metrics.recordLatency(outputType, System.nanoTime() - start);
+        }
+        if (emitMetrics.get(vars)) {
+          setMetricsVariables(cache.metrics, outputType, msgCtxt);
+        }
       }
     } catch (Exception e) {
+      // on success, the output is simply overwritten; on failure, a stale
+      // value must not be left behind
+      msgCtxt.removeVariable(outputVar);
+      if (cache != null && outputType != null) {
+        cache.metrics.recordError(outputType);
+      }
       if (debug) {
         e.printStackTrace();
         msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
       }
       setExceptionVariables(e, msgCtxt);
       return ExecutionResult.ABORT;
+    } finally {
+      if (source != null) {
+        source.release();
+      }
     }
 
     return ExecutionResult.SUCCESS;
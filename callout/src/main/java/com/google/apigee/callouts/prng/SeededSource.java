@@ -0,0 +1,102 @@
+// SeededSource.java
+//
+// A deterministic source, for the seed property: the same seed gives the
+// same values, on any node, in any run. This is SplitMix64, which is
+// counter-based: draw k is a mix of seed + (k + 1) * GAMMA, and so can be
+// computed directly, without computing the draws before it. It is fast,
+// and its output passes BigCrush, but it is not a cryptographic
+// generator; anyone who knows the seed knows every value.
+//
+// See Steele, Lea and Flood, "Fast Splittable Pseudorandom Number
+// Generators", OOPSLA 2014.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.Threads;
+
+final class SeededSource extends RandomSource {
+  static final String ALGORITHM = "SplitMix64";
+  private static final long GAMMA = 0x9e3779b97f4a7c15L;
+  private static final ThreadLocal<SeededSource> perThread =
+      ThreadLocal.withInitial(SeededSource::new);
+
+  private long seed;
+  private long counter;
+
+  private SeededSource() {}
+
+  // This thread's source, positioned at draw k for the seed. A virtual
+  // thread gets a new one; it is small, and holds nothing worth keeping.
+  static SeededSource get(long seed, long k) {
+    SeededSource source = Threads.isVirtual() ? new SeededSource() : perThread.get();
+    source.seed = seed;
+    source.counter = k;
+    source.discardSpareGaussian();
+    return source;
+  }
+
+  // A numeric seed is used as is; any other string, like a request key,
+  // is hashed to a seed with 64-bit FNV-1a.
+  static Long parseSeed(String s) {
+    long seed = Numbers.parseLong(s, 0, s.length(), Long.MIN_VALUE);
+    if (seed != Long.MIN_VALUE) return seed;
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+      hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  // draw k of the sequence for the seed
+  static long draw(long seed, long k) {
+    return mix(seed + (k + 1) * GAMMA);
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  long nextLong() {
+    return draw(seed, counter++);
+  }
+
+  int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  void nextBytes(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    while (offset < end) {
+      long r = nextLong();
+      for (int n = Math.min(end - offset, 8); n-- > 0; r >>>= 8) {
+        bytes[offset++] = (byte) r;
+      }
+    }
+  }
+
+  // Drawing is cheap, so there is nothing to gain from prefetching.
+  RandomSource prefetch(int length) {
+    return this;
+  }
+}
@@ -0,0 +1,71 @@
+// SourcePool.java
+//
+// A bounded pool of sources, for virtual threads. A ThreadLocal suits a
+// platform thread, which lives long and runs the callout many times. A
+// virtual thread typically runs it once, so a source held in a
+// ThreadLocal would be created, and its SecureRandom seeded, for a single
+// use, and then thrown away. Instead, a virtual thread borrows a source
+// for the duration of one execution, and returns it.
+//
+// Borrowing and returning are lock-free. The number of sources in use at
+// once is about the number of carrier threads, as the callout does not
+// block; the pool keeps at most maxIdle sources between uses, and a
+// source returned to a full pool is dropped.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+final class SourcePool<T extends RandomSource> {
+  private final ConcurrentLinkedQueue<T> idle;
+  // ConcurrentLinkedQueue.size() walks the queue
+  private final AtomicInteger idleCount;
+  private final int maxIdle;
+  private final Supplier<T> factory;
+
+  SourcePool(int maxIdle, Supplier<T> factory) {
+    this.idle = new ConcurrentLinkedQueue<T>();
+    this.idleCount = new AtomicInteger();
+    this.maxIdle = maxIdle;
+    this.factory = factory;
+  }
+
+  T borrow() {
+    T source = idle.poll();
+    if (source == null) {
+      return factory.get();
+    }
+    idleCount.decrementAndGet();
+    return source;
+  }
+
+  void release(T source) {
+    if (idleCount.incrementAndGet() <= maxIdle) {
+      idle.offer(source);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  int idle() {
+    return idleCount.get();
+  }
+}
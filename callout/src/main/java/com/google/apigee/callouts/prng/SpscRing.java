@@ -0,0 +1,88 @@
+// SpscRing.java
+//
+// A bounded, lock-free queue for one producer thread and one consumer
+// thread, after Lamport. Each index is written by only one side, and
+// published with an ordered store, so neither side ever waits on, or
+// contends with, the other. A value is visible to the consumer once the
+// tail that covers it is.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SpscRing<T> {
+  private final Object[] slots;
+  private final int mask;
+  // the next slot to read; written only by the consumer
+  private final AtomicLong head;
+  // the next slot to write; written only by the producer
+  private final AtomicLong tail;
+
+  // capacity is rounded up to a power of two
+  SpscRing(int capacity) {
+    int n = 1;
+    while (n < capacity) n <<= 1;
+    this.slots = new Object[n];
+    this.mask = n - 1;
+    this.head = new AtomicLong();
+    this.tail = new AtomicLong();
+  }
+
+  int capacity() {
+    return slots.length;
+  }
+
+  // the number of values waiting; exact only on the producer or consumer
+  int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  // producer only
+  boolean offer(T value) {
+    long t = tail.get();
+    if (t - head.get() == slots.length) {
+      return false;
+    }
+    slots[(int) t & mask] = value;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  // consumer only; null when empty
+  @SuppressWarnings("unchecked")
+  T poll() {
+    long h = head.get();
+    if (h == tail.get()) {
+      return null;
+    }
+    int i = (int) h & mask;
+    T value = (T) slots[i];
+    slots[i] = null;
+    head.lazySet(h + 1);
+    return value;
+  }
+
+  // Discards the values waiting, once the producer has stopped. A poll()
+  // at the same time finds a cleared slot, and returns null, as if empty.
+  void clear() {
+    Arrays.fill(slots, null);
+    head.set(tail.get());
+  }
+}
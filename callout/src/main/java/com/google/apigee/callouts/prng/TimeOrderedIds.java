@@ -0,0 +1,150 @@
+// TimeOrderedIds.java
+//
+// Generates time-ordered identifiers: version 7 UUIDs and ULIDs. Each
+// begins with a 48-bit Unix timestamp in milliseconds, so that values
+// minted close together in time sort close together, which keeps index
+// inserts downstream from scattering across a B-tree.
+//
+// State is kept per thread, so generation needs no locks. Within a thread,
+// values are strictly increasing: IDs minted in the same millisecond
+// increment a counter, and if the clock steps backward, the last timestamp
+// is reused. Across threads, IDs from the same millisecond are not ordered
+// relative to each other, but carry enough random bits to be unique.
+//
+// Virtual threads, which are many and short-lived, do not get state of
+// their own. For each type they share one packed state: the timestamp in
+// the high bits, and a counter in the low 12 bits for UUIDs, or 16 bits
+// for ULIDs, where it takes the place of the top of the random part. The
+// random bits are drawn first, and the state is advanced with a CAS, so no
+// thread waits on another's draw, and values are still strictly increasing.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Threads;
+import com.google.apigee.callouts.UuidEx;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class TimeOrderedIds {
+  private static final char[] CROCKFORD_DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+  private static final ThreadLocal<TimeOrderedIds> perThread =
+      ThreadLocal.withInitial(TimeOrderedIds::new);
+  // for virtual threads: (millis << 12) | counter, and (millis << 16) | counter
+  private static final AtomicLong sharedUuid = new AtomicLong();
+  private static final AtomicLong sharedUlid = new AtomicLong();
+
+  private long uuidMillis = -1;
+  // 12-bit counter in the rand_a field, per RFC 9562 section 6.2 method 1
+  private int uuidCounter;
+
+  private long ulidMillis = -1;
+  private long ulidRandomHigh; // 16 bits
+  private long ulidRandomLow; // 64 bits
+
+  private final char[] chars = new char[26];
+
+  private TimeOrderedIds() {}
+
+  static UuidEx uuidV7(RandomSource source) {
+    return Threads.isVirtual() ? sharedUuidV7(source) : perThread.get().nextUuidV7(source);
+  }
+
+  static String ulid(RandomSource source) {
+    return Threads.isVirtual() ? sharedUlid(source) : perThread.get().nextUlid(source);
+  }
+
+  static UuidEx sharedUuidV7(RandomSource source) {
+    long lsb = (source.nextLong() >>> 2) | (0x80L << 56);
+    long state = advance(sharedUuid, 12, source.nextInt() & 0x7ff);
+    long msb = ((state >>> 12) << 16) | 0x7000L | (state & 0xfff);
+    return UuidEx.fromBits(msb, lsb);
+  }
+
+  static String sharedUlid(RandomSource source) {
+    long low = source.nextLong();
+    // the state is the timestamp and the top 16 bits of the random part
+    long high = advance(sharedUlid, 16, source.nextInt() & 0x7fff);
+    return encode(high, low, new char[26]);
+  }
+
+  // Moves the packed state past its current value, and returns the new
+  // value. In a new millisecond, the counter starts at the given point, in
+  // the lower half of its range, to leave room to count; when it overflows,
+  // it carries into the timestamp, which borrows the next millisecond.
+  private static long advance(AtomicLong state, int counterBits, long start) {
+    long millis = System.currentTimeMillis();
+    while (true) {
+      long current = state.get();
+      long next =
+          (millis > (current >>> counterBits)) ? (millis << counterBits) | start : current + 1;
+      if (state.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+  }
+
+  private UuidEx nextUuidV7(RandomSource source) {
+    long now = System.currentTimeMillis();
+    if (now > uuidMillis) {
+      uuidMillis = now;
+      // start at a random point in the lower half, to leave room to count
+      uuidCounter = source.nextInt() & 0x7ff;
+    } else if (++uuidCounter > 0xfff) {
+      // counter exhausted in this millisecond; borrow the next one
+      uuidMillis++;
+      uuidCounter = source.nextInt() & 0x7ff;
+    }
+    long msb = (uuidMillis << 16) | 0x7000L | uuidCounter;
+    long lsb = (source.nextLong() >>> 2) | (0x80L << 56);
+    return UuidEx.fromBits(msb, lsb);
+  }
+
+  private String nextUlid(RandomSource source) {
+    long now = System.currentTimeMillis();
+    if (now > ulidMillis) {
+      ulidMillis = now;
+      ulidRandomLow = source.nextLong();
+      ulidRandomHigh = source.nextInt() & 0xffffL;
+    } else if (++ulidRandomLow == 0 && ++ulidRandomHigh > 0xffffL) {
+      // the 80-bit random part overflowed; borrow the next millisecond
+      ulidMillis++;
+      ulidRandomLow = source.nextLong();
+      ulidRandomHigh = source.nextInt() & 0xffffL;
+    }
+    return encode((ulidMillis << 16) | ulidRandomHigh, ulidRandomLow, chars);
+  }
+
+  // the 128 bits as 26 Crockford base32 digits
+  private static String encode(long high, long low, char[] chars) {
+    // 26 digits cover 130 bits; the first digit holds just 3 bits.
+    chars[0] = CROCKFORD_DIGITS[(int) (high >>> 61)];
+    for (int i = 1; i < 26; i++) {
+      chars[i] = CROCKFORD_DIGITS[quintet(high, low, 5 * i - 2)];
+    }
+    return new String(chars);
+  }
+
+  // the 5 bits starting at bit position p, counting from the most
+  // significant bit of high
+  private static int quintet(long high, long low, int p) {
+    if (p + 5 <= 64) return (int) (high >>> (59 - p)) & 0x1f;
+    if (p >= 64) return (int) (low >>> (123 - p)) & 0x1f;
+    return (int) ((high << (p - 59)) | (low >>> (123 - p))) & 0x1f;
+  }
+}
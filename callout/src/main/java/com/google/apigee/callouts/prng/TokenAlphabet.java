@@ -0,0 +1,118 @@
+// TokenAlphabet.java
+//
+// Generates random tokens, like API keys, OTPs and nonces, over an
+// alphabet. All the random bytes for a token come from one nextBytes()
+// call, and characters are written into a reusable char buffer.
+//
+// For an alphabet whose size is a power of two, like hex or base64url,
+// each byte yields one or more characters with no waste. For other sizes,
+// each byte yields one character, by rejection: bytes at or above the
+// largest multiple of the alphabet size that fits in 256 are discarded,
+// so every character is equally likely. The worst case acceptance rate
+// is just over one half; for ten digits it is 250/256.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.ValidationException;
+
+final class TokenAlphabet {
+  static final int MAX_LENGTH = 1024;
+  private static final ValidationException BAD_ALPHABET_SIZE =
+      new ValidationException("alphabet must have between 2 and 256 characters");
+  private static final ValidationException REPEATED_CHARACTER =
+      new ValidationException("alphabet has a repeated character");
+  private static final ValidationException LENGTH_OUT_OF_RANGE =
+      new ValidationException(String.format("length must be between 1 and %d", MAX_LENGTH));
+
+  static final TokenAlphabet HEX = new TokenAlphabet("0123456789abcdef");
+  static final TokenAlphabet BASE64URL =
+      new TokenAlphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_");
+  static final TokenAlphabet ALPHANUMERIC =
+      new TokenAlphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789");
+
+  private final char[] chars;
+  // log2 of the size, if the size is a power of two; otherwise 0
+  private final int bitsPerChar;
+  // bytes at or above this are rejected
+  private final int limit;
+
+  private TokenAlphabet(String alphabet) {
+    this.chars = alphabet.toCharArray();
+    int n = chars.length;
+    this.bitsPerChar = ((n & (n - 1)) == 0) ? Integer.numberOfTrailingZeros(n) : 0;
+    this.limit = 256 - (256 % n);
+  }
+
+  static TokenAlphabet parse(String alphabet) throws ValidationException {
+    if (alphabet.length() < 2 || alphabet.length() > 256) throw BAD_ALPHABET_SIZE;
+    for (int i = 1; i < alphabet.length(); i++) {
+      if (alphabet.lastIndexOf(alphabet.charAt(i), i - 1) >= 0) throw REPEATED_CHARACTER;
+    }
+    return new TokenAlphabet(alphabet);
+  }
+
+  static Integer parseLength(String s) throws ValidationException {
+    int length = Numbers.parseInt(s, "length");
+    if (length < 1 || length > MAX_LENGTH) throw LENGTH_OUT_OF_RANGE;
+    return length;
+  }
+
+  // the number of bytes to draw at once for a token of this length; for
+  // rejection, enough that a second draw is rarely needed
+  int bytesFor(int length) {
+    if (bitsPerChar > 0) {
+      return (length * bitsPerChar + 7) / 8;
+    }
+    return length + (length >> 3) + 2;
+  }
+
+  String next(RandomSource source, int length) {
+    char[] out = source.chars(length);
+    int n = bytesFor(length);
+    byte[] bytes = source.scratch(n);
+    source.nextBytes(bytes, 0, n);
+    if (bitsPerChar > 0) {
+      int mask = chars.length - 1;
+      long bits = 0;
+      int available = 0;
+      for (int i = 0, j = 0; i < length; i++) {
+        if (available < bitsPerChar) {
+          bits = (bits << 8) | (bytes[j++] & 0xff);
+          available += 8;
+        }
+        available -= bitsPerChar;
+        out[i] = chars[(int) (bits >>> available) & mask];
+      }
+    } else {
+      int i = 0;
+      while (true) {
+        for (int j = 0; j < n && i < length; j++) {
+          int b = bytes[j] & 0xff;
+          if (b < limit) {
+            out[i++] = chars[b % chars.length];
+          }
+        }
+        if (i == length) break;
+        source.nextBytes(bytes, 0, n);
+      }
+    }
+    return new String(out, 0, length);
+  }
+}
@@ -0,0 +1,31 @@
+// Threads.java
+//
+// Tells whether the current thread is virtual. This is the Java 21
+// version, built into META-INF/versions/21 of the multi-release jar; the
+// version in src/main/java, for earlier runtimes, always says no.
+//
+// Copyright 2017-2022 Google LLC.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ------------------------------------------------------------------
+
+package com.google.apigee.callouts;
+
+public final class Threads {
+  private Threads() {}
+
+  public static boolean isVirtual() {
+    return Thread.currentThread().isVirtual();
+  }
+}
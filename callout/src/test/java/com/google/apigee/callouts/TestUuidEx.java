@@ -0,0 +1,61 @@
+package com.google.apigee.callouts;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestUuidEx {
+
+  private static byte[] versioned(byte[] bytes) {
+    byte[] b = bytes.clone();
+    b[6] &= 0x0f;
+    b[6] |= 0x40;
+    b[8] &= 0x3f;
+    b[8] |= 0x80;
+    return b;
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  @Test
+  public void testFormats() {
+    Random random = new Random(2022);
+    byte[] bytes = new byte[16];
+    for (int i = 0; i < 1000; i++) {
+      random.nextBytes(bytes);
+      byte[] expected = versioned(bytes);
+      UuidEx uuid = UuidEx.fromRandomBytes(bytes, 0);
+
+      String standard = uuid.toString();
+      UUID parsed = UUID.fromString(standard);
+      Assert.assertEquals(parsed.toString(), standard);
+      Assert.assertEquals(parsed.version(), 4);
+      Assert.assertEquals(parsed.variant(), 2);
+
+      String hex = uuid.toString(UuidEx.Format.HEX);
+      Assert.assertEquals(hex, hex(expected));
+      Assert.assertEquals(hex, standard.replace("-", ""));
+
+      String base64url = uuid.toString(UuidEx.Format.BASE64URL);
+      Assert.assertEquals(base64url.length(), 22);
+      Assert.assertEquals(
+          base64url, Base64.getUrlEncoder().withoutPadding().encodeToString(expected));
+    }
+  }
+
+  @Test
+  public void testOffset() {
+    byte[] bytes = new byte[40];
+    new Random(17).nextBytes(bytes);
+    byte[] slice = new byte[16];
+    System.arraycopy(bytes, 20, slice, 0, 16);
+    Assert.assertEquals(
+        UuidEx.fromRandomBytes(bytes, 20).toString(UuidEx.Format.HEX), hex(versioned(slice)));
+  }
+}
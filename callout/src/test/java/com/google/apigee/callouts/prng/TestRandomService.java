@@ -0,0 +1,219 @@
+package com.google.apigee.callouts.prng;
+
+import com.google.apigee.callouts.ValidationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRandomService {
+
+  private static Map<String, String> properties(String... keysAndValues) {
+    Map<String, String> properties = new HashMap<String, String>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      properties.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return properties;
+  }
+
+  private static String invalid(Map<String, String> properties) {
+    try {
+      new RandomService(properties).close();
+      Assert.fail("expected a ValidationException");
+      return null;
+    } catch (ValidationException e) {
+      return e.getError();
+    }
+  }
+
+  @Test
+  public void testNext() throws Exception {
+    try (RandomService service =
+        new RandomService(properties("output-type", "int", "range", "1,6"))) {
+      Set<String> seen = new HashSet<String>();
+      for (int i = 0; i < 600; i++) {
+        int value = Integer.parseInt(service.next());
+        Assert.assertTrue(value >= 1 && value <= 6, "value " + value);
+        seen.add(Integer.toString(value));
+      }
+      Assert.assertEquals(seen.size(), 6);
+    }
+  }
+
+  @Test
+  public void testInvalidProperties() {
+    Assert.assertEquals(invalid(properties("output-type", "dice")), "invalid output-type: dice");
+    Assert.assertEquals(
+        invalid(properties("output-type", "{request.queryparam.type}")),
+        "output-type must be a literal value");
+    Assert.assertEquals(
+        invalid(properties("algorithm", "NoSuchPRNG")), "NoSuchPRNG SecureRandom not available");
+    // what the output type needs
+    Assert.assertEquals(
+        invalid(properties("output-type", "choice")), "choices resolves to an empty string.");
+    Assert.assertEquals(
+        invalid(properties("output-type", "custom")), "alphabet resolves to an empty string.");
+    Assert.assertEquals(
+        invalid(properties("output-type", "int", "range", "0,4294967296")),
+        "range is out of bounds for output-type int");
+    Assert.assertEquals(
+        invalid(properties("ring-size", "8")), "ring-size must be 0, or between 16 and 65536");
+    Assert.assertEquals(
+        invalid(properties("ring-size", "64", "seed", "42")),
+        "ring-size does not apply with a seed");
+    Assert.assertTrue(
+        invalid(properties("ring-size", "64", "producer-threads", "0"))
+            .startsWith("producer-threads must be between 1 and "));
+    Assert.assertEquals(
+        invalid(properties("output-type", "uuid", "seed", "42")),
+        "seed does not apply to tokens, uuids or ulids");
+  }
+
+  @Test
+  public void testValidationDrawsNothing() throws Exception {
+    PrngCache cache = PrngCache.forAlgorithm("ChaCha20PRNG");
+    long before = cache.metrics.draws(OutputType.ALPHANUMERIC);
+    try (RandomService service =
+        new RandomService(properties("algorithm", "ChaCha20PRNG", "output-type", "alphanumeric"))) {
+      Assert.assertEquals(cache.metrics.draws(OutputType.ALPHANUMERIC), before);
+      service.next();
+      Assert.assertEquals(cache.metrics.draws(OutputType.ALPHANUMERIC), before + 1);
+    }
+  }
+
+  @Test
+  public void testSeededMatchesCallout() throws Exception {
+    Map<String, String> properties =
+        properties("output-type", "long", "seed", "1234567", "seed-offset", "3");
+    try (RandomService service = new RandomService(properties)) {
+      String value = service.next();
+      Assert.assertEquals(service.next(), value);
+      RandomSource source = SeededSource.get(1234567, 3);
+      Assert.assertEquals(value, Long.toString(source.nextLong()));
+    }
+  }
+
+  @Test
+  public void testFill() throws Exception {
+    try (RandomService service = new RandomService(properties("range", "-5,5"))) {
+      byte[] bytes = new byte[100];
+      service.fill(bytes);
+      int zeros = 0;
+      for (byte b : bytes) if (b == 0) zeros++;
+      Assert.assertTrue(zeros < 10, "zeros " + zeros);
+
+      long[] longs = new long[3000];
+      service.fill(longs);
+      for (long v : longs) Assert.assertTrue(v >= -5 && v <= 5, "value " + v);
+
+      UUID[] uuids = new UUID[2500];
+      service.fill(uuids);
+      Set<UUID> unique = new HashSet<UUID>();
+      for (UUID uuid : uuids) {
+        Assert.assertEquals(uuid.version(), 4);
+        Assert.assertEquals(uuid.variant(), 2);
+        unique.add(uuid);
+      }
+      Assert.assertEquals(unique.size(), uuids.length);
+    }
+  }
+
+  @Test
+  public void testNextAsync() throws Exception {
+    try (RandomService service = new RandomService(properties("output-type", "uuid"))) {
+      String value = service.nextAsync().get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(UUID.fromString(value).version(), 4);
+    }
+  }
+
+  @Test
+  public void testRing() {
+    SpscRing<String> ring = new SpscRing<String>(5);
+    Assert.assertEquals(ring.capacity(), 8);
+    Assert.assertNull(ring.poll());
+    for (int i = 0; i < 8; i++) Assert.assertTrue(ring.offer("v" + i));
+    Assert.assertFalse(ring.offer("v8"));
+    Assert.assertEquals(ring.size(), 8);
+    for (int i = 0; i < 8; i++) Assert.assertEquals(ring.poll(), "v" + i);
+    Assert.assertNull(ring.poll());
+    // wraps around
+    for (int i = 0; i < 20; i++) {
+      Assert.assertTrue(ring.offer("w" + i));
+      Assert.assertEquals(ring.poll(), "w" + i);
+    }
+  }
+
+  // The first take registers this thread's ring; once a producer has
+  // filled it, values come from the ring.
+  @Test
+  public void testPipelinedTake() throws Exception {
+    Pipeline[] pipeline = new Pipeline[1];
+    int[] filled = new int[1];
+    pipeline[0] =
+        Pipeline.start(
+            16,
+            2,
+            (ring, n) -> {
+              synchronized (filled) {
+                for (int i = 0; i < n; i++) ring.offer("p" + filled[0]++);
+              }
+            });
+    try {
+      Assert.assertNull(pipeline[0].take());
+      String value = null;
+      long deadline = System.currentTimeMillis() + 10000;
+      while (value == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+        value = pipeline[0].take();
+      }
+      Assert.assertEquals(value, "p0");
+      // the producer tops the ring up when it is half empty
+      Set<String> taken = new HashSet<String>();
+      deadline = System.currentTimeMillis() + 10000;
+      while (taken.size() < 64 && System.currentTimeMillis() < deadline) {
+        value = pipeline[0].take();
+        if (value != null) Assert.assertTrue(taken.add(value), "duplicate " + value);
+        else Thread.sleep(1);
+      }
+      Assert.assertEquals(taken.size(), 64);
+      // let the producer top the ring up again
+      deadline = System.currentTimeMillis() + 10000;
+      while (pipeline[0].waiting() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      Assert.assertTrue(pipeline[0].waiting() > 0);
+    } finally {
+      pipeline[0].close();
+    }
+    // close() waits for the producers, and discards what they generated
+    Assert.assertTrue(pipeline[0].stopped());
+    Assert.assertEquals(pipeline[0].waiting(), 0);
+    Assert.assertNull(pipeline[0].take());
+  }
+
+  @Test
+  public void testServiceTake() throws Exception {
+    try (RandomService service =
+        new RandomService(
+            properties(
+                "output-type",
+                "hex",
+                "length",
+                "16",
+                "ring-size",
+                "32",
+                "producer-threads",
+                "1"))) {
+      Set<String> seen = new HashSet<String>();
+      for (int i = 0; i < 500; i++) {
+        String value = service.take();
+        Assert.assertTrue(value.matches("[0-9a-f]{16}"), value);
+        Assert.assertTrue(seen.add(value), "duplicate " + value);
+      }
+    }
+  }
+}
@@ -4,10 +4,27 @@ import com.apigee.flow.execution.ExecutionContext;
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.Numbers;
+import com.google.apigee.callouts.Setting;
+import com.google.apigee.callouts.Threads;
+import com.google.apigee.callouts.ValidationException;
+import com.google.apigee.callouts.prng.RandomSource.SecureRandomSource;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import mockit.Mock;
 import mockit.MockUp;
 import org.testng.Assert;
@@ -21,9 +38,12 @@ public class TestSecureRandomCallout {
   String messageContent;
   Message message;
   ExecutionContext exeCtxt;
+  // calls on the message context, for tests that count them
+  int contextCalls;
 
   @BeforeMethod()
   public void testSetup1() {
+    contextCalls = 0;
 
     msgCtxt =
         new MockUp<MessageContext>() {
@@ -35,6 +55,7 @@ public class TestSecureRandomCallout {
 
           @Mock()
           public <T> T getVariable(final String name) {
+            contextCalls++;
             if (variables == null) {
               variables = new HashMap<String, Object>();
             }
@@ -43,6 +64,7 @@ public class TestSecureRandomCallout {
 
           @Mock()
           public boolean setVariable(final String name, final Object value) {
+            contextCalls++;
             if (variables == null) {
               variables = new HashMap<String, Object>();
             }
@@ -52,6 +74,7 @@ public class TestSecureRandomCallout {
 
           @Mock()
           public boolean removeVariable(final String name) {
+            contextCalls++;
             if (variables == null) {
               variables = new HashMap<String, Object>();
             }
@@ -122,6 +145,124 @@ public class TestSecureRandomCallout {
     }
   }
 
+  @Test
+  public void testRandomIntRange_Templated() throws Exception {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "SHA1PRNG");
+    properties.put("output-type", "int");
+    properties.put("range", "{request.queryparam.min:10},{request.queryparam.max}");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    msgCtxt.setVariable("request.queryparam.max", "20");
+    for (int i = 0; i < 1000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      int value = Integer.parseInt(msgCtxt.getVariable("prng_random"));
+      Assert.assertTrue(value <= 20);
+      Assert.assertTrue(value >= 10);
+    }
+
+    msgCtxt.setVariable("request.queryparam.min", "-5");
+    msgCtxt.setVariable("request.queryparam.max", " -3");
+    for (int i = 0; i < 1000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      int value = Integer.parseInt(msgCtxt.getVariable("prng_random"));
+      Assert.assertTrue(value <= -3);
+      Assert.assertTrue(value >= -5);
+    }
+
+    msgCtxt.setVariable("request.queryparam.max", "-7");
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+    String error = msgCtxt.getVariable("prng_error");
+    Assert.assertEquals(error, "max is not greater than min");
+  }
+
+  @Test
+  public void testRandomIntWideRange() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "int");
+    properties.put("range", "-2000000000,2000000000");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    boolean sawNegative = false, sawPositive = false;
+    for (int i = 0; i < 1000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      int value = Integer.parseInt(output);
+      Assert.assertTrue(value >= -2000000000 && value <= 2000000000);
+      sawNegative |= value < 0;
+      sawPositive |= value > 0;
+    }
+    Assert.assertTrue(sawNegative && sawPositive);
+  }
+
+  @Test
+  public void testRandomLongRange() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "long");
+    properties.put("range", "-9223372036854775808,9223372036854775807");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    String output = msgCtxt.getVariable("prng_random");
+    Long.parseLong(output); // must not throw
+
+    long min = 10000000000L, max = 10000000000L + 5000000000L;
+    properties.put("range", min + "," + max);
+    callout = new SecureRandomCallout(properties);
+    for (int i = 0; i < 1000; i++) {
+      result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      output = msgCtxt.getVariable("prng_random");
+      long value = Long.parseLong(output);
+      Assert.assertTrue(value >= min && value <= max, output);
+    }
+  }
+
+  @Test
+  public void testBoundedUniformity() {
+    // a span that is not a power of two, where modulo bias would show
+    RandomSource source = new RandomSource.SecureRandomSource(new SecureRandom());
+    int[] counts = new int[3];
+    for (int i = 0; i < 30000; i++) {
+      counts[(int) source.nextLong(0, 2)]++;
+    }
+    for (int count : counts) {
+      Assert.assertTrue(count > 9500 && count < 10500, "bucket count " + count);
+    }
+    Random random = new Random();
+    for (int i = 0; i < 1000; i++) {
+      long x = random.nextLong(), y = random.nextLong();
+      BigInteger product =
+          new BigInteger(Long.toUnsignedString(x))
+              .multiply(new BigInteger(Long.toUnsignedString(y)));
+      Assert.assertEquals(
+          Long.toUnsignedString(RandomSource.unsignedMultiplyHigh(x, y)),
+          product.shiftRight(64).toString());
+    }
+  }
+
+  @Test
+  public void testBogusRange() {
+    String[] bogusRanges = {"17", "1,2,3", "a,b", "5,", "10,1", "0,3000000000"};
+    for (String bogus : bogusRanges) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("output-type", "int");
+      properties.put("range", bogus);
+
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.ABORT, bogus);
+      String output = msgCtxt.getVariable("prng_random");
+      Assert.assertEquals(output, null, bogus);
+      String error = msgCtxt.getVariable("prng_error");
+      Assert.assertNotEquals(error, null, bogus);
+    }
+  }
+
   @Test
   public void testRandomDefault_SHA1PRNG() {
     String alg = "SHA1PRNG";
@@ -180,6 +321,210 @@ public class TestSecureRandomCallout {
     }
   }
 
+  @Test
+  public void testGaussianScaledZiggurat() {
+    Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(Locale.GERMANY);
+    try {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("output-type", "gaussian");
+      properties.put("gaussian-method", "ziggurat");
+      properties.put("decimal-digits", "3");
+      properties.put("mean", "100");
+      properties.put("stddev", "15");
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+      int n = 20000;
+      double sum = 0, sumOfSquares = 0;
+      for (int i = 0; i < n; i++) {
+        ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+        Assert.assertEquals(result, ExecutionResult.SUCCESS);
+        String output = msgCtxt.getVariable("prng_random");
+        Assert.assertTrue(output.matches("-?[0-9]+\\.[0-9]{3}"), output);
+        double v = Double.parseDouble(output);
+        sum += v;
+        sumOfSquares += v * v;
+      }
+      double mean = sum / n;
+      double stddev = Math.sqrt(sumOfSquares / n - mean * mean);
+      Assert.assertEquals(mean, 100, 0.5);
+      Assert.assertEquals(stddev, 15, 0.5);
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void testFixedDecimal() {
+    Assert.assertEquals(FixedDecimal.format(1.5, 0), "2");
+    Assert.assertEquals(FixedDecimal.format(-1.5, 0), "-2");
+    Assert.assertEquals(FixedDecimal.format(0.125, 2), "0.13");
+    Assert.assertEquals(FixedDecimal.format(-0.0001, 2), "-0.00");
+    Assert.assertEquals(FixedDecimal.format(7, 3), "7.000");
+    Assert.assertEquals(FixedDecimal.format(1e20, 1), "100000000000000000000.0");
+    Random random = new Random();
+    for (int i = 0; i < 10000; i++) {
+      double v = random.nextGaussian() * 1000;
+      int digits = random.nextInt(13);
+      String expected = String.format(Locale.ROOT, "%." + digits + "f", v);
+      String actual = FixedDecimal.format(v, digits);
+      // may differ by one in the last digit, at a half-way point
+      Assert.assertEquals(
+          Double.parseDouble(actual), Double.parseDouble(expected), Math.pow(10, -digits) * 1.5);
+      Assert.assertEquals(actual.length(), expected.length(), expected);
+    }
+  }
+
+  @Test
+  public void testDouble() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "double");
+    properties.put("decimal-digits", "4");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    double sum = 0;
+    for (int i = 0; i < 10000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      Assert.assertTrue(output.matches("0\\.[0-9]{4}"), output);
+      sum += Double.parseDouble(output);
+    }
+    Assert.assertEquals(sum / 10000, 0.5, 0.02);
+  }
+
+  @Test
+  public void testExponential() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "exponential");
+    properties.put("rate", "{flow.backoff.rate}");
+    msgCtxt.setVariable("flow.backoff.rate", "0.5");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    double sum = 0;
+    for (int i = 0; i < 20000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      double v = Double.parseDouble(output);
+      Assert.assertTrue(v >= 0, output);
+      sum += v;
+    }
+    // mean is 1/rate
+    Assert.assertEquals(sum / 20000, 2.0, 0.1);
+
+    msgCtxt.setVariable("flow.backoff.rate", "-1");
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void testWeightedChoice() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "choice");
+    properties.put("choices", "canary:10, stable:85,control:5 ,never:0");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    int n = 40000;
+    for (int i = 0; i < n; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      counts.merge(output, 1, Integer::sum);
+    }
+    Assert.assertEquals(counts.size(), 3, counts.toString());
+    Assert.assertEquals(counts.get("canary") / (double) n, 0.10, 0.01);
+    Assert.assertEquals(counts.get("stable") / (double) n, 0.85, 0.01);
+    Assert.assertEquals(counts.get("control") / (double) n, 0.05, 0.01);
+  }
+
+  @Test
+  public void testChoiceEqualWeightsTemplated() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "choice");
+    properties.put("choices", "{flow.buckets}");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    for (String buckets : new String[] {"A,B", "x,y,z"}) {
+      msgCtxt.setVariable("flow.buckets", buckets);
+      Set<String> seen = new HashSet<String>();
+      for (int i = 0; i < 200; i++) {
+        ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+        Assert.assertEquals(result, ExecutionResult.SUCCESS);
+        String output = msgCtxt.getVariable("prng_random");
+        seen.add(output);
+      }
+      Assert.assertEquals(seen, new HashSet<String>(Arrays.asList(buckets.split(","))));
+    }
+
+    for (String bogus : new String[] {"a:0,b:0", "a:-1,b:2", "a,,b", "a:x"}) {
+      msgCtxt.setVariable("flow.buckets", bogus);
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.ABORT, bogus);
+    }
+  }
+
+  @Test
+  public void testTokens() {
+    String[][] cases = {
+      {"hex", "7", "[0-9a-f]{7}"},
+      {"hex", "64", "[0-9a-f]{64}"},
+      {"base64url", "43", "[A-Za-z0-9_-]{43}"},
+      {"alphanumeric", "20", "[A-Za-z0-9]{20}"},
+      {"alphanumeric", null, "[A-Za-z0-9]{32}"}
+    };
+    for (String[] c : cases) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("output-type", c[0]);
+      if (c[1] != null) properties.put("length", c[1]);
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      for (int i = 0; i < 100; i++) {
+        ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+        Assert.assertEquals(result, ExecutionResult.SUCCESS, c[0]);
+        String output = msgCtxt.getVariable("prng_random");
+        Assert.assertTrue(output.matches(c[2]), c[0] + ": " + output);
+      }
+    }
+  }
+
+  @Test
+  public void testOtpDigits() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "custom");
+    properties.put("alphabet", "0123456789");
+    properties.put("length", "6");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    int[] counts = new int[10];
+    for (int i = 0; i < 5000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      Assert.assertTrue(output.matches("[0-9]{6}"), output);
+      for (char c : output.toCharArray()) counts[c - '0']++;
+    }
+    for (int count : counts) {
+      // expected 3000 per digit
+      Assert.assertTrue(count > 2700 && count < 3300, "digit count " + count);
+    }
+  }
+
+  @Test
+  public void testBogusTokenSettings() {
+    String[][] cases = {
+      {"custom", null, null},
+      {"custom", "aba", "6"},
+      {"custom", "a", "6"},
+      {"hex", null, "0"},
+      {"hex", null, "5000"}
+    };
+    for (String[] c : cases) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("output-type", c[0]);
+      if (c[1] != null) properties.put("alphabet", c[1]);
+      if (c[2] != null) properties.put("length", c[2]);
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.ABORT, Arrays.toString(c));
+    }
+  }
+
   @Test
   public void testRandomUuid_NativePRNG() {
     String alg = "NativePRNG";
@@ -203,6 +548,867 @@ public class TestSecureRandomCallout {
     }
   }
 
+  @Test
+  public void testBatchUuid() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "SHA1PRNG");
+    properties.put("output-type", "uuid");
+    properties.put("count", "3");
+    properties.put("delimiter", "|");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    String output = msgCtxt.getVariable("prng_random");
+    String[] parts = output.split("\\|");
+    Assert.assertEquals(parts.length, 3);
+    for (int i = 0; i < 3; i++) {
+      String indexed = msgCtxt.getVariable("prng_random_" + (i + 1));
+      Assert.assertEquals(indexed, parts[i]);
+      UUID uuid = UUID.fromString(indexed);
+      Assert.assertEquals(uuid.version(), 4);
+      Assert.assertEquals(uuid.variant(), 2);
+    }
+    Assert.assertNotEquals(parts[0], parts[1]);
+  }
+
+  @Test
+  public void testBatchIntRangeJson() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "int");
+    properties.put("range", "1,6");
+    properties.put("count", "100");
+    properties.put("batch-format", "json");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    String output = msgCtxt.getVariable("prng_random");
+    Assert.assertTrue(output.startsWith("[") && output.endsWith("]"), output);
+    String[] parts = output.substring(1, output.length() - 1).split(",");
+    Assert.assertEquals(parts.length, 100);
+    for (String part : parts) {
+      int value = Integer.parseInt(part);
+      Assert.assertTrue(value >= 1 && value <= 6);
+    }
+    String last = msgCtxt.getVariable("prng_random_100");
+    Assert.assertEquals(last, parts[99]);
+  }
+
+  @Test
+  public void testBogusCount() {
+    for (String bogus : new String[] {"0", "-1", "1001", "many"}) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("count", bogus);
+
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.ABORT, bogus);
+      String output = msgCtxt.getVariable("prng_random");
+      Assert.assertEquals(output, null, bogus);
+    }
+  }
+
+  @Test
+  public void testBufferedUuid() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "NativePRNG");
+    properties.put("output-type", "uuid");
+    properties.put("buffer-size", "4096");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    Set<String> seen = new HashSet<String>();
+    for (int i = 0; i < 10000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      UUID uuid = UUID.fromString(output);
+      Assert.assertEquals(uuid.version(), 4);
+      Assert.assertTrue(seen.add(output), "duplicate uuid");
+    }
+  }
+
+  @Test
+  public void testBufferedIntRange() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "int");
+    properties.put("range", "0,9");
+    properties.put("buffer-size", "64");
+    properties.put("buffer-max-age-ms", "1");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    int[] counts = new int[10];
+    for (int i = 0; i < 20000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      counts[Integer.parseInt(output)]++;
+    }
+    for (int count : counts) {
+      // expected 2000 per bucket
+      Assert.assertTrue(count > 1700 && count < 2300, "bucket count " + count);
+    }
+  }
+
+  @Test
+  public void testBogusBufferSize() {
+    for (String bogus : new String[] {"-1", "1", "100000"}) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("buffer-size", bogus);
+
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.ABORT, bogus);
+    }
+  }
+
+  @Test
+  public void testUuidFormats() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "uuid");
+    properties.put("uuid-format", "hex");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    String output = msgCtxt.getVariable("prng_random");
+    Assert.assertTrue(output.matches("[0-9a-f]{12}4[0-9a-f]{3}[89ab][0-9a-f]{15}"), output);
+
+    properties.put("uuid-format", "base64url");
+    callout = new SecureRandomCallout(properties);
+    result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    output = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(output.length(), 22);
+    Assert.assertEquals(Base64.getUrlDecoder().decode(output).length, 16);
+
+    properties.put("uuid-format", "braces");
+    callout = new SecureRandomCallout(properties);
+    result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void testUuidV7() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "uuidv7");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    long start = System.currentTimeMillis();
+    String previous = "";
+    for (int i = 0; i < 10000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      UUID uuid = UUID.fromString(output);
+      Assert.assertEquals(uuid.toString(), output);
+      Assert.assertEquals(uuid.version(), 7);
+      Assert.assertEquals(uuid.variant(), 2);
+      Assert.assertTrue(output.compareTo(previous) > 0, "not increasing: " + output);
+      previous = output;
+    }
+    long millis = Long.parseLong(previous.substring(0, 8) + previous.substring(9, 13), 16);
+    Assert.assertTrue(millis >= start && millis <= System.currentTimeMillis() + 1000);
+  }
+
+  @Test
+  public void testUlid() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "ulid");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    long start = System.currentTimeMillis();
+    String previous = "";
+    for (int i = 0; i < 10000; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String output = msgCtxt.getVariable("prng_random");
+      Assert.assertTrue(output.matches("[0-7][0-9A-HJKMNP-TV-Z]{25}"), output);
+      Assert.assertTrue(output.compareTo(previous) > 0, "not increasing: " + output);
+      previous = output;
+    }
+    String digits = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+    long millis = 0;
+    for (int i = 0; i < 10; i++) millis = millis * 32 + digits.indexOf(previous.charAt(i));
+    Assert.assertTrue(millis >= start && millis <= System.currentTimeMillis() + 1000);
+  }
+
+  @Test
+  public void testTimeOrderedIdsConcurrent() throws Exception {
+    final int threads = 8;
+    final int perThread = 5000;
+    final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] =
+          new Thread(
+              () -> {
+                RandomSource source =
+                    new RandomSource.SecureRandomSource(new SecureRandom());
+                for (int i = 0; i < perThread; i++) {
+                  seen.add(TimeOrderedIds.uuidV7(source).toString());
+                  seen.add(TimeOrderedIds.ulid(source));
+                }
+              });
+      workers[t].start();
+    }
+    for (Thread worker : workers) worker.join();
+    Assert.assertEquals(seen.size(), threads * perThread * 2);
+  }
+
+  @Test
+  public void testSharedTimeOrderedIds() throws Exception {
+    // the path for virtual threads, which share one state for each type
+    final int threads = 8;
+    final int perThread = 5000;
+    final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+    final AtomicInteger bad = new AtomicInteger();
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] =
+          new Thread(
+              () -> {
+                RandomSource source =
+                    new RandomSource.SecureRandomSource(new SecureRandom());
+                String previousUuid = "";
+                String previousUlid = "";
+                for (int i = 0; i < perThread; i++) {
+                  String uuid = TimeOrderedIds.sharedUuidV7(source).toString();
+                  String ulid = TimeOrderedIds.sharedUlid(source);
+                  if (uuid.compareTo(previousUuid) <= 0 || ulid.compareTo(previousUlid) <= 0) {
+                    bad.incrementAndGet();
+                  }
+                  UUID parsed = UUID.fromString(uuid);
+                  if (parsed.version() != 7 || parsed.variant() != 2) {
+                    bad.incrementAndGet();
+                  }
+                  seen.add(uuid);
+                  seen.add(ulid);
+                  previousUuid = uuid;
+                  previousUlid = ulid;
+                }
+              });
+      workers[t].start();
+    }
+    for (Thread worker : workers) worker.join();
+    Assert.assertEquals(bad.get(), 0);
+    Assert.assertEquals(seen.size(), threads * perThread * 2);
+  }
+
+  @Test
+  public void testPoolModes() {
+    for (String mode : new String[] {"threadlocal", "striped", "shared"}) {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("algorithm", "SHA1PRNG");
+      properties.put("output-type", "uuid");
+      properties.put("pool-mode", mode);
+      SecureRandomCallout callout = new SecureRandomCallout(properties);
+      for (int i = 0; i < 100; i++) {
+        ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+        Assert.assertEquals(result, ExecutionResult.SUCCESS, mode);
+        String output = msgCtxt.getVariable("prng_random");
+        UUID.fromString(output); // must not throw
+      }
+    }
+
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("pool-mode", "global");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void testPoolModeInstances() throws Exception {
+    final PrngCache cache = PrngCache.forAlgorithm("SHA1PRNG");
+    final int threads = 32;
+    final Set<SecureRandom> striped = Collections.synchronizedSet(new HashSet<SecureRandom>());
+    final Set<SecureRandom> shared = Collections.synchronizedSet(new HashSet<SecureRandom>());
+    final SecureRandom[] own = new SecureRandom[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] =
+          new Thread(
+              () -> {
+                try {
+                  for (int i = 0; i < 100; i++) {
+                    RandomSource.SecureRandomSource source =
+                        cache.source(PrngCache.Mode.STRIPED);
+                    source.nextLong();
+                    striped.add(source.prng);
+                    source = cache.source(PrngCache.Mode.SHARED);
+                    source.nextLong();
+                    shared.add(source.prng);
+                    source = cache.source(PrngCache.Mode.THREADLOCAL);
+                    source.nextLong();
+                    if (own[id] != source.prng && own[id] != null) {
+                      // borrowed until warm
+                      Assert.assertTrue(striped.contains(own[id]) || shared.contains(own[id]));
+                    }
+                    own[id] = source.prng;
+                  }
+                } catch (Exception e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      workers[t].start();
+    }
+    for (Thread worker : workers) worker.join();
+    Assert.assertEquals(shared.size(), 1);
+    Set<SecureRandom> distinct = new HashSet<SecureRandom>();
+    for (SecureRandom prng : own) {
+      Assert.assertTrue(
+          striped.contains(prng) || shared.contains(prng) || distinct.add(prng),
+          "shared by two threads");
+    }
+    Assert.assertTrue(striped.size() <= PrngCache.STRIPES + 1);
+  }
+
+  @Test
+  public void testWarmupHandsOffSeededInstance() throws Exception {
+    PrngCache cache = PrngCache.forAlgorithm("SHA1PRNG");
+    SecureRandom shared = cache.source(PrngCache.Mode.SHARED).prng;
+    SecureRandom prng = shared;
+    long deadline = System.currentTimeMillis() + 10000;
+    while (prng == shared && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+      prng = cache.source(PrngCache.Mode.THREADLOCAL).prng;
+    }
+    Assert.assertNotSame(prng, shared);
+  }
+
+  @Test
+  public void testSharedConstants() {
+    // absent properties share their constants
+    Assert.assertSame(Setting.compile(null, null, s -> s), Setting.compile("", null, s -> s));
+    Assert.assertSame(
+        Setting.compile(null, Boolean.TRUE, Boolean::parseBoolean),
+        Setting.compile("true", false, Boolean::parseBoolean));
+  }
+
+  @Test
+  public void testSourcePoolBound() {
+    AtomicInteger created = new AtomicInteger();
+    SourcePool<RandomSource> pool =
+        new SourcePool<RandomSource>(
+            2,
+            () -> {
+              created.incrementAndGet();
+              return new FastSource(1, 2, 3, 4);
+            });
+    RandomSource a = pool.borrow();
+    RandomSource b = pool.borrow();
+    RandomSource c = pool.borrow();
+    Assert.assertEquals(created.get(), 3);
+    pool.release(a);
+    pool.release(b);
+    pool.release(c); // dropped
+    Assert.assertEquals(pool.idle(), 2);
+    Assert.assertSame(pool.borrow(), a);
+    Assert.assertSame(pool.borrow(), b);
+    Assert.assertEquals(pool.idle(), 0);
+    pool.borrow();
+    Assert.assertEquals(created.get(), 4);
+  }
+
+  // A virtual thread borrows its source, and the instance bound to it, and
+  // returns both; a platform thread keeps its own.
+  @Test
+  public void testPooledSourceKeepsInstance() throws Exception {
+    Assert.assertFalse(Threads.isVirtual());
+    PrngCache cache = PrngCache.forAlgorithm("SHA1PRNG");
+    SecureRandomSource source = cache.pooled.borrow();
+    Assert.assertSame(source.pool, cache.pooled);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (source.own == null && System.currentTimeMillis() < deadline) {
+      cache.bind(source, PrngCache.Mode.THREADLOCAL, 0, 0, 1);
+      Thread.sleep(5);
+    }
+    PrngCache.Generator own = source.own;
+    Assert.assertNotNull(own);
+    int idle = cache.pooled.idle();
+    source.release();
+    Assert.assertEquals(cache.pooled.idle(), idle + 1);
+    SecureRandomSource again = cache.pooled.borrow();
+    Assert.assertSame(again, source);
+    Assert.assertSame(cache.bind(again, PrngCache.Mode.THREADLOCAL, 0, 0, 1).prng, own.prng);
+    again.release();
+
+    idle = cache.pooled.idle();
+    cache.source(PrngCache.Mode.THREADLOCAL).release();
+    Assert.assertEquals(cache.pooled.idle(), idle);
+  }
+
+  // Keeps asking for a source until the instance changes, or time runs out.
+  private static SecureRandom nextInstance(
+      PrngCache cache, PrngCache.Mode mode, long maxDraws, long maxAgeNanos) throws Exception {
+    SecureRandom first = cache.source(mode, maxDraws, maxAgeNanos, 1).prng;
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      SecureRandom prng = cache.source(mode, maxDraws, maxAgeNanos, 1).prng;
+      if (prng != first) return prng;
+      Thread.sleep(1);
+    }
+    return first;
+  }
+
+  @Test
+  public void testReseedIntervals() throws Exception {
+    PrngCache cache = PrngCache.forAlgorithm("SHA1PRNG");
+    for (PrngCache.Mode mode : PrngCache.Mode.values()) {
+      SecureRandom before = cache.source(mode, 3, 0, 1).prng;
+      Assert.assertNotSame(nextInstance(cache, mode, 3, 0), before, mode.toString());
+      before = cache.source(mode, 0, 1000000, 1).prng;
+      Assert.assertNotSame(nextInstance(cache, mode, 0, 1000000), before, mode.toString());
+    }
+    // a batch counts as the values in it, not as one draw
+    PrngCache.Generator generator = new PrngCache.Generator(new SecureRandom());
+    Assert.assertFalse(generator.due(10, 0, 4));
+    Assert.assertFalse(generator.due(10, 0, 6));
+    Assert.assertTrue(generator.due(10, 0, 1));
+    Assert.assertTrue(new PrngCache.Generator(new SecureRandom()).due(10, 0, 11));
+    // without an interval, the instance stays put
+    SecureRandom prng = cache.source(PrngCache.Mode.SHARED).prng;
+    for (int i = 0; i < 100; i++) {
+      Assert.assertSame(cache.source(PrngCache.Mode.SHARED).prng, prng);
+    }
+  }
+
+  @Test
+  public void testReseedProperties() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "SHA1PRNG");
+    properties.put("output-type", "uuid");
+    properties.put("reseed-interval-draws", "2");
+    properties.put("reseed-interval-ms", "{reseed_ms}");
+    msgCtxt.setVariable("reseed_ms", "50");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    Set<String> values = new HashSet<String>();
+    for (int i = 0; i < 20; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+      String value = msgCtxt.getVariable("prng_random");
+      Assert.assertTrue(values.add(value));
+    }
+
+    properties.put("reseed-interval-draws", "-1");
+    callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    long previous = -1;
+    for (long v : new long[] {0, 1, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE}) {
+      int bucket = Histogram.bucketFor(v);
+      long highest = Histogram.highestIn(bucket);
+      Assert.assertTrue(highest >= v, "value " + v);
+      Assert.assertTrue(highest - v <= v / 8, "value " + v);
+      Assert.assertTrue(bucket >= previous);
+      previous = bucket;
+    }
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+    Assert.assertEquals(histogram.count(), 1000);
+    Assert.assertEquals(histogram.max(), 1000000L);
+    Assert.assertEquals(histogram.mean(), 500500L);
+    long p50 = histogram.valueAt(0.5);
+    Assert.assertTrue(p50 >= 500000L && p50 <= 500000L * 9 / 8, "p50 " + p50);
+    long p99 = histogram.valueAt(0.99);
+    Assert.assertTrue(p99 >= 990000L && p99 <= 1000000L, "p99 " + p99);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "SHA1PRNG");
+    properties.put("output-type", "long");
+    properties.put("count", "4");
+    properties.put("metrics-sampling", "1");
+    properties.put("emit-metrics", "true");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    long before = PrngCache.forAlgorithm("SHA1PRNG").metrics.draws(OutputType.LONG);
+    for (int i = 0; i < 10; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    }
+    String draws = msgCtxt.getVariable("prng_metrics_draws");
+    Assert.assertTrue(Long.parseLong(draws) >= before + 40, draws);
+    String p99 = msgCtxt.getVariable("prng_metrics_latency_p99_ns");
+    Assert.assertTrue(Long.parseLong(p99) > 0, p99);
+    String instances = msgCtxt.getVariable("prng_metrics_instances");
+    Assert.assertTrue(Long.parseLong(instances) >= 1, instances);
+
+    // JMX is opt-in
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name =
+        new ObjectName("com.google.apigee.callouts.prng:type=PrngMetrics,algorithm=\"SHA1PRNG\"");
+    Metrics metrics = PrngCache.forAlgorithm("SHA1PRNG").metrics;
+    metrics.register();
+    Assert.assertFalse(server.isRegistered(name));
+    System.setProperty(Metrics.JMX_PROPERTY, "true");
+    try {
+      metrics.register();
+    } finally {
+      System.clearProperty(Metrics.JMX_PROPERTY);
+    }
+    Assert.assertEquals(server.getAttribute(name, "Algorithm"), "SHA1PRNG");
+    RandomService.unregisterMetrics();
+    Assert.assertFalse(server.isRegistered(name));
+
+    // a bad range fails in generation, after the output type is known
+    properties.put("range", "{range}");
+    msgCtxt.setVariable("range", "10,1");
+    long errors = PrngCache.forAlgorithm("SHA1PRNG").metrics.errors(OutputType.LONG);
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        PrngCache.forAlgorithm("SHA1PRNG").metrics.errors(OutputType.LONG), errors + 1);
+  }
+
+  // An unknown name is rejected from the set of known names, without
+  // walking the providers, and nothing is kept for it.
+  @Test
+  public void testUnknownAlgorithm() throws Exception {
+    for (int i = 0; i < 300; i++) {
+      try {
+        PrngCache.forAlgorithm("NoSuchPRNG" + i);
+        Assert.fail("expected an exception");
+      } catch (ValidationException e) {
+        Assert.assertEquals(e.getStackTrace().length, 0);
+        Assert.assertEquals(e.getError(), "NoSuchPRNG" + i + " SecureRandom not available");
+      }
+    }
+    // known names, and aliases, in any case
+    Assert.assertNotNull(PrngCache.forAlgorithm("nativeprng"));
+  }
+
+  // names that differ only in case share the cache of the canonical name
+  @Test
+  public void testAlgorithmCaseVariants() throws Exception {
+    PrngCache cache = PrngCache.forAlgorithm("SHA1PRNG");
+    Assert.assertSame(PrngCache.forAlgorithm("sha1prng"), cache);
+    Assert.assertSame(PrngCache.forAlgorithm("Sha1Prng"), cache);
+    Assert.assertSame(
+        PrngCache.forAlgorithm("chacha20prng"), PrngCache.forAlgorithm("ChaCha20PRNG"));
+  }
+
+  @Test
+  public void testAllowedAlgorithms() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "{alg}");
+    properties.put("allowed-algorithms", "SHA1PRNG, NativePRNG");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    msgCtxt.setVariable("alg", "NativePRNG");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertEquals(algorithm, "NativePRNG");
+
+    msgCtxt.setVariable("alg", "DRBG");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    String error = msgCtxt.getVariable("prng_error");
+    Assert.assertEquals(error, "algorithm not allowed: DRBG");
+    Object stacktrace = msgCtxt.getVariable("prng_stacktrace");
+    Assert.assertNull(stacktrace);
+
+    msgCtxt.setVariable("alg", "Bogus");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+
+    // a literal algorithm outside the list fails on every request
+    properties.put("algorithm", "DRBG");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void testValidationErrors() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("count", "{count}");
+    properties.put("output-type", "{type}");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+
+    String[][] cases = {
+      {"abc", "int", "invalid count: abc"},
+      {"99999999999", "int", "invalid count: 99999999999"},
+      {"0", "int", "count must be between 1 and 1000"},
+      {"2", "bogus", "invalid output-type: bogus"}
+    };
+    for (String[] c : cases) {
+      msgCtxt.setVariable("count", c[0]);
+      msgCtxt.setVariable("type", c[1]);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT, c[2]);
+      String error = msgCtxt.getVariable("prng_error");
+      Assert.assertEquals(error, c[2]);
+      String exception = msgCtxt.getVariable("prng_exception");
+      Assert.assertEquals(exception, "com.google.apigee.callouts.ValidationException: " + c[2]);
+      Object stacktrace = msgCtxt.getVariable("prng_stacktrace");
+      Assert.assertNull(stacktrace);
+    }
+
+    // the stack trace is captured only with debug
+    properties.put("debug", "true");
+    callout = new SecureRandomCallout(properties);
+    msgCtxt.setVariable("count", "-1");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    String stacktrace = msgCtxt.getVariable("prng_stacktrace");
+    Assert.assertNotNull(stacktrace);
+  }
+
+  @Test
+  public void testNumbers() throws Exception {
+    Assert.assertEquals(Numbers.parseLong(" -9223372036854775808 ", "n"), Long.MIN_VALUE);
+    Assert.assertEquals(Numbers.parseLong("+42", "n"), 42L);
+    Assert.assertEquals(Numbers.parseDouble("-1.5e3", "d"), -1500.0);
+    for (String bogus : new String[] {"", "-", "1.5", "9223372036854775808", "0x10"}) {
+      try {
+        Numbers.parseLong(bogus, "n");
+        Assert.fail(bogus);
+      } catch (ValidationException e) {
+        Assert.assertEquals(e.getStackTrace().length, 0);
+      }
+    }
+    for (String bogus : new String[] {"", "e", "NaN", "1e", "1.0d", "abc"}) {
+      try {
+        Numbers.parseDouble(bogus, "d");
+        Assert.fail(bogus);
+      } catch (ValidationException e) {
+        Assert.assertEquals(e.getError(), "invalid d: " + bogus);
+      }
+    }
+  }
+
+  @Test
+  public void testOutputVariable() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("output-type", "uuid");
+    properties.put("output-variable", "flow.request_id");
+    properties.put("emit-metadata", "false");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    contextCalls = 0;
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(contextCalls, 1);
+    String id = msgCtxt.getVariable("flow.request_id");
+    Assert.assertEquals(UUID.fromString(id).version(), 4);
+    Object random = msgCtxt.getVariable("prng_random");
+    Assert.assertNull(random);
+    Object algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertNull(algorithm);
+
+    // batch items follow the output variable
+    properties.put("count", "3");
+    properties.put("output-variable", "{target}");
+    msgCtxt.setVariable("target", "flow.ids");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String ids = msgCtxt.getVariable("flow.ids");
+    String last = msgCtxt.getVariable("flow.ids_3");
+    Assert.assertTrue(ids.endsWith(last));
+
+    // a failure removes a stale value
+    properties.put("count", "0");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Object stale = msgCtxt.getVariable("flow.ids");
+    Assert.assertNull(stale);
+  }
+
+  @Test
+  public void testSeeded() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("seed", "1234567");
+    properties.put("output-type", "long");
+    properties.put("count", "5");
+    properties.put("batch-format", "json");
+
+    // the reference sequence for SplitMix64 with this seed
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String values = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(
+        values,
+        "[6457827717110365317,3203168211198807973,-8629252141511181193,"
+            + "4593380528125082431,-2037821214251327795]");
+    String algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertEquals(algorithm, "SplitMix64");
+
+    // the same again, from a new instance
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String again = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(again, values);
+
+    // draw k, directly
+    properties.put("count", "1");
+    properties.put("seed-offset", "{k}");
+    msgCtxt.setVariable("k", "3");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String fourth = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(fourth, "4593380528125082431");
+
+    // a request key as the seed gives a stable bucket
+    properties.remove("seed-offset");
+    properties.put("seed", "{request.header.user}");
+    properties.put("output-type", "int");
+    properties.put("range", "0,99");
+    callout = new SecureRandomCallout(properties);
+    msgCtxt.setVariable("request.header.user", "alice@example.com");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String bucket = msgCtxt.getVariable("prng_random");
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+      String b = msgCtxt.getVariable("prng_random");
+      Assert.assertEquals(b, bucket);
+    }
+
+    // gaussians too, without a spare carried from an earlier request
+    properties.put("seed", "42");
+    properties.put("output-type", "gaussian");
+    properties.remove("range");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String g1 = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String g2 = msgCtxt.getVariable("prng_random");
+    Assert.assertEquals(g2, g1);
+
+    // never for tokens or IDs, which a client could then predict
+    for (String type : new String[] {"hex", "base64url", "alphanumeric", "uuid", "ulid"}) {
+      properties.put("output-type", type);
+      callout = new SecureRandomCallout(properties);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT, type);
+      String error = msgCtxt.getVariable("prng_error");
+      Assert.assertEquals(error, "seed does not apply to tokens, uuids or ulids");
+    }
+  }
+
+  @Test
+  public void testFastStrength() {
+    // the reference sequence for xoshiro256** from state 1, 2, 3, 4
+    FastSource reference = new FastSource(1, 2, 3, 4);
+    long[] expected = {11520L, 0L, 1509978240L, 1215971899390074240L};
+    for (long e : expected) Assert.assertEquals(reference.nextLong(), e);
+
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("strength", "fast");
+    properties.put("output-type", "int");
+    properties.put("range", "1,100");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    int[] counts = new int[101];
+    for (int i = 0; i < 10000; i++) {
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+      String value = msgCtxt.getVariable("prng_random");
+      counts[Integer.parseInt(value)]++;
+    }
+    for (int v = 1; v <= 100; v++) Assert.assertTrue(counts[v] > 50, "value " + v);
+    String algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertEquals(algorithm, "xoshiro256**");
+
+    // never from a variable
+    properties.put("strength", "{strength}");
+    msgCtxt.setVariable("strength", "fast");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    String error = msgCtxt.getVariable("prng_error");
+    Assert.assertEquals(error, "strength must be a literal value");
+
+    properties.put("strength", "weak");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+
+    // secure is the default
+    properties.remove("strength");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertEquals(algorithm, "SHA1PRNG");
+  }
+
+  @Test
+  public void testChaCha20Block() {
+    // RFC 8439, section 2.3.2
+    int[] key = new int[8];
+    for (int i = 0; i < 8; i++) {
+      key[i] = (4 * i) | (4 * i + 1) << 8 | (4 * i + 2) << 16 | (4 * i + 3) << 24;
+    }
+    int[] nonce = {0x09000000, 0x4a000000, 0};
+    byte[] out = new byte[64];
+    ChaCha20Spi.block(key, 1, nonce, out, 0);
+    Assert.assertEquals(
+        new BigInteger(1, out).toString(16),
+        "10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+            + "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e");
+  }
+
+  @Test
+  public void testChaCha20PRNG() throws Exception {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("algorithm", "ChaCha20PRNG");
+    properties.put("output-type", "uuid");
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    Set<String> values = new HashSet<String>();
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+      String value = msgCtxt.getVariable("prng_random");
+      Assert.assertTrue(values.add(value));
+    }
+    String algorithm = msgCtxt.getVariable("prng_algorithm");
+    Assert.assertEquals(algorithm, "ChaCha20PRNG");
+
+    // byte frequencies over output that crosses many refills
+    SecureRandom prng = PrngCache.forAlgorithm("ChaCha20PRNG").source(PrngCache.Mode.SHARED).prng;
+    byte[] bytes = new byte[256 * 1024 + 7];
+    prng.nextBytes(bytes);
+    int[] counts = new int[256];
+    for (byte b : bytes) counts[b & 0xff]++;
+    double chiSquare = 0;
+    double expected = bytes.length / 256.0;
+    for (int c : counts) chiSquare += (c - expected) * (c - expected) / expected;
+    // 255 degrees of freedom; p < 1e-6 beyond about 370
+    Assert.assertTrue(chiSquare < 370, "chi-square " + chiSquare);
+  }
+
+  @Test
+  public void testPreloadAlgorithms() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("preload-algorithms", "NativePRNG, SHA1PRNG");
+    properties.put("algorithm", "SHA1PRNG");
+    properties.put("output-type", "int");
+
+    SecureRandomCallout callout = new SecureRandomCallout(properties);
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+
+    properties.put("preload-algorithms", "SHA1PRNG,Bogus");
+    callout = new SecureRandomCallout(properties);
+    result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+    String error = msgCtxt.getVariable("prng_error");
+    Assert.assertNotNull(error);
+
+    // preloading is limited to the allowed algorithms, too
+    properties.put("preload-algorithms", "SHA1PRNG,NativePRNG");
+    properties.put("allowed-algorithms", "SHA1PRNG");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    error = msgCtxt.getVariable("prng_error");
+    Assert.assertEquals(error, "algorithm not allowed: NativePRNG");
+
+    // never from a variable
+    properties.remove("allowed-algorithms");
+    properties.put("preload-algorithms", "{preload}");
+    msgCtxt.setVariable("preload", "SHA1PRNG");
+    callout = new SecureRandomCallout(properties);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    error = msgCtxt.getVariable("prng_error");
+    Assert.assertEquals(error, "preload-algorithms must be a literal value");
+  }
+
   @Test
   public void testBogusOutputType() {
     String alg = "NativePRNG";
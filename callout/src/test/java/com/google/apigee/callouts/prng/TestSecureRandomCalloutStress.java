@@ -0,0 +1,355 @@
+package com.google.apigee.callouts.prng;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.MessageContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+// Runs the callout from many threads at once, as a message processor does,
+// and checks that the output is still correct and statistically sound.
+// The statistical checks use thresholds with a false-alarm rate of about
+// one in a million, so a failure means something is wrong.
+//
+// The scaling runs, in the "stress" group, use 64 to 512 threads and take
+// a while; they run with the maven profile "stress". Set the system
+// property stress.iterations to change the executions per thread.
+public class TestSecureRandomCalloutStress {
+  private static final int ITERATIONS = Integer.getInteger("stress.iterations", 2000);
+  // the standard normal quantile for a one-sided p of 1e-6
+  private static final double Z = 4.75;
+
+  // A thread-safe MessageContext. A real message processor gives each
+  // request its own context; the mocked context in the other tests is
+  // not safe to share between threads.
+  static final class ConcurrentMessageContext implements InvocationHandler {
+    private final Map<String, Object> variables = new ConcurrentHashMap<String, Object>();
+
+    static MessageContext create() {
+      return (MessageContext)
+          Proxy.newProxyInstance(
+              MessageContext.class.getClassLoader(),
+              new Class<?>[] {MessageContext.class},
+              new ConcurrentMessageContext());
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "getVariable":
+          return variables.get((String) args[0]);
+        case "setVariable":
+          if (args[1] == null) variables.remove((String) args[0]);
+          else variables.put((String) args[0], args[1]);
+          return Boolean.TRUE;
+        case "removeVariable":
+          variables.remove((String) args[0]);
+          return Boolean.TRUE;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "ConcurrentMessageContext" + variables;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    }
+  }
+
+  static final class Run {
+    final int threads;
+    final long nanos;
+    final List<String> values;
+    final long instancesCreated;
+    // threads that had their own instance by the end, in threadlocal mode
+    final int ownInstances;
+    // how many more spares the cache kept at the end than at the start
+    final int sparesAdded;
+
+    Run(
+        int threads,
+        long nanos,
+        List<String> values,
+        long instancesCreated,
+        int ownInstances,
+        int sparesAdded) {
+      this.threads = threads;
+      this.nanos = nanos;
+      this.values = values;
+      this.instancesCreated = instancesCreated;
+      this.ownInstances = ownInstances;
+      this.sparesAdded = sparesAdded;
+    }
+
+    double opsPerSecond() {
+      return values.size() * 1e9 / nanos;
+    }
+  }
+
+  // One callout, shared by all threads, as a deployed policy is. Each
+  // thread has its own context, and collects its values; all threads start
+  // together.
+  static Run run(Map<String, String> properties, int threads, int iterations)
+      throws Exception {
+    final SecureRandomCallout callout = new SecureRandomCallout(properties);
+    String algorithm = properties.getOrDefault("algorithm", "SHA1PRNG");
+    final PrngCache cache = PrngCache.forAlgorithm(algorithm);
+    Metrics metrics = cache.metrics;
+    long instancesBefore = metrics.getInstancesCreated();
+    int sparesBefore = cache.spareCount();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicInteger ownInstances = new AtomicInteger();
+    final List<List<String>> results = new ArrayList<List<String>>();
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final List<String> values = new ArrayList<String>(iterations);
+      results.add(values);
+      workers[t] =
+          new Thread(
+              () -> {
+                MessageContext msgCtxt = ConcurrentMessageContext.create();
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                for (int i = 0; i < iterations; i++) {
+                  if (callout.execute(msgCtxt, null) != ExecutionResult.SUCCESS) {
+                    failures.incrementAndGet();
+                    return;
+                  }
+                  values.add((String) msgCtxt.getVariable("prng_random"));
+                }
+                if (cache.hasOwnInstance()) {
+                  ownInstances.incrementAndGet();
+                }
+              });
+      workers[t].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) worker.join();
+    long nanos = System.nanoTime() - begin;
+    Assert.assertEquals(failures.get(), 0, "failed executions");
+    List<String> all = new ArrayList<String>(threads * iterations);
+    for (List<String> values : results) all.addAll(values);
+    Assert.assertEquals(all.size(), threads * iterations);
+    long instancesCreated = metrics.getInstancesCreated() - instancesBefore;
+    return new Run(
+        threads,
+        nanos,
+        all,
+        instancesCreated,
+        ownInstances.get(),
+        cache.spareCount() - sparesBefore);
+  }
+
+  private static Map<String, String> properties(String... keysAndValues) {
+    Map<String, String> properties = new HashMap<String, String>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      properties.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return properties;
+  }
+
+  // The chi-square value exceeded with probability about 1e-6, for the
+  // given degrees of freedom, by the Wilson-Hilferty approximation.
+  static double chiSquareLimit(int df) {
+    double a = 2.0 / (9 * df);
+    double c = 1 - a + Z * Math.sqrt(a);
+    return df * c * c * c;
+  }
+
+  // the standard normal CDF, from Abramowitz and Stegun 7.1.26
+  static double normalCdf(double x) {
+    double z = Math.abs(x) / Math.sqrt(2);
+    double t = 1 / (1 + 0.3275911 * z);
+    double poly =
+        t
+            * (0.254829592
+                + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+    double erf = 1 - poly * Math.exp(-z * z);
+    return 0.5 * (1 + Math.signum(x) * erf);
+  }
+
+  @DataProvider(name = "generators")
+  public Object[][] generators() {
+    return new Object[][] {
+      {"SHA1PRNG", "secure"},
+      {"NativePRNG", "secure"},
+      {"ChaCha20PRNG", "secure"},
+      {"SHA1PRNG", "fast"}
+    };
+  }
+
+  @Test(dataProvider = "generators")
+  public void testRangeUniformity(String algorithm, String strength) throws Exception {
+    int buckets = 100;
+    Run run =
+        run(
+            properties(
+                "algorithm", algorithm,
+                "strength", strength,
+                "output-type", "int",
+                "range", "1," + buckets,
+                "count", "10",
+                "delimiter", "|"),
+            64,
+            ITERATIONS / 10);
+    int[] counts = new int[buckets + 1];
+    int n = 0;
+    for (String batch : run.values) {
+      for (String value : batch.split("\\|")) {
+        counts[Integer.parseInt(value)]++;
+        n++;
+      }
+    }
+    Assert.assertEquals(counts[0], 0);
+    double expected = (double) n / buckets;
+    double chiSquare = 0;
+    for (int v = 1; v <= buckets; v++) {
+      chiSquare += (counts[v] - expected) * (counts[v] - expected) / expected;
+    }
+    Assert.assertTrue(
+        chiSquare < chiSquareLimit(buckets - 1),
+        String.format("%s/%s chi-square %.1f", algorithm, strength, chiSquare));
+  }
+
+  @Test(dataProvider = "generators")
+  public void testUuidCollisions(String algorithm, String strength) throws Exception {
+    Run run =
+        run(
+            properties(
+                "algorithm", algorithm,
+                "strength", strength,
+                "output-type", "uuid"),
+            64,
+            ITERATIONS);
+    Set<String> seen = new HashSet<String>(run.values.size() * 2);
+    for (String value : run.values) {
+      Assert.assertTrue(seen.add(value), "duplicate " + value);
+      UUID uuid = UUID.fromString(value);
+      Assert.assertEquals(uuid.version(), 4);
+      Assert.assertEquals(uuid.variant(), 2);
+    }
+  }
+
+  @DataProvider(name = "gaussianMethods")
+  public Object[][] gaussianMethods() {
+    return new Object[][] {{"polar"}, {"ziggurat"}};
+  }
+
+  // Kolmogorov-Smirnov against the configured normal distribution, and
+  // checks on the sample mean and variance.
+  @Test(dataProvider = "gaussianMethods")
+  public void testGaussianNormality(String method) throws Exception {
+    double mean = 10;
+    double stddev = 3;
+    Run run =
+        run(
+            properties(
+                "output-type", "gaussian",
+                "gaussian-method", method,
+                "mean", Double.toString(mean),
+                "stddev", Double.toString(stddev)),
+            64,
+            ITERATIONS / 4);
+    int n = run.values.size();
+    double[] x = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      x[i] = Double.parseDouble(run.values.get(i));
+      sum += x[i];
+    }
+    Arrays.sort(x);
+    double d = 0;
+    for (int i = 0; i < n; i++) {
+      double cdf = normalCdf((x[i] - mean) / stddev);
+      d = Math.max(d, Math.max(cdf - (double) i / n, (double) (i + 1) / n - cdf));
+    }
+    // the KS statistic exceeded with probability about 1e-6
+    double limit = Math.sqrt(-Math.log(0.5e-6) / (2 * n));
+    Assert.assertTrue(d < limit, String.format("%s KS statistic %.5f", method, d));
+
+    double sampleMean = sum / n;
+    Assert.assertTrue(
+        Math.abs(sampleMean - mean) < Z * stddev / Math.sqrt(n), "mean " + sampleMean);
+    double squares = 0;
+    for (double v : x) squares += (v - sampleMean) * (v - sampleMean);
+    double variance = squares / (n - 1);
+    // the variance of the sample variance is 2 sigma^4 / (n - 1)
+    Assert.assertTrue(
+        Math.abs(variance - stddev * stddev)
+            < Z * stddev * stddev * Math.sqrt(2.0 / (n - 1)),
+        "variance " + variance);
+  }
+
+  @DataProvider(name = "poolModes")
+  public Object[][] poolModes() {
+    return new Object[][] {{"threadlocal"}, {"striped"}, {"shared"}};
+  }
+
+  // Throughput as the thread count grows, and the SecureRandom instances
+  // that each pool mode creates to serve the new threads.
+  @Test(dataProvider = "poolModes", groups = "stress")
+  public void testScaling(String poolMode) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    for (int t = 1; t < Math.min(cores, 64); t *= 2) threadCounts.add(t);
+    for (int t = 64; t <= 512; t *= 2) threadCounts.add(t);
+    for (int threads : threadCounts) {
+      Run run =
+          run(
+              properties("algorithm", "SHA1PRNG", "pool-mode", poolMode, "output-type", "uuid"),
+              threads,
+              ITERATIONS / 4);
+      String report =
+          String.format(
+              "pool-mode=%s cores=%d threads=%d ops/s=%.0f instances-created=%d own=%d"
+                  + " spares-added=%d",
+              poolMode,
+              cores,
+              threads,
+              run.opsPerSecond(),
+              run.instancesCreated,
+              run.ownInstances,
+              run.sparesAdded);
+      Reporter.log(report, true);
+      Assert.assertEquals(new HashSet<String>(run.values).size(), run.values.size());
+      // new threads take seeded spares, which the warm-up thread replaces,
+      // so a thread costs at most one instance, plus the spares in flight,
+      // and those kept for the next burst
+      int spares = 16 + Math.max(0, run.sparesAdded);
+      switch (poolMode) {
+        case "threadlocal":
+          Assert.assertTrue(run.instancesCreated <= threads + spares, report);
+          // the spares grow to the burst, so most threads get their own,
+          // rather than staying on a stripe
+          Assert.assertTrue(run.ownInstances * 2 > threads, report);
+          break;
+        case "striped":
+          Assert.assertTrue(run.instancesCreated <= PrngCache.STRIPES + spares, report);
+          break;
+        default:
+          Assert.assertTrue(run.instancesCreated <= spares, report);
+          break;
+      }
+    }
+  }
+}